@@ -0,0 +1,314 @@
+package sudoku.dialog;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import sudoku.dialog.NetworkAdapter.MessageListener;
+import sudoku.dialog.NetworkAdapter.MessageType;
+
+/**
+ * Encodes and decodes the messages of the protocol documented in
+ * {@link NetworkAdapter} as compact binary frames. A frame is a type byte,
+ * the length of the payload and the payload:
+ *
+ * <pre>
+ *  [0x80 | code] [length] [payload]
+ * </pre>
+ *
+ * where code is the index of the message type in {@link #TYPES}, and the
+ * length and the numbers of the payload are variable-length integers of 7
+ * bits per byte, so most take one byte. The payload of a message holds its
+ * x, y and z arguments followed by the others, e.g., a fill message takes
+ * 5 bytes instead of about 11. Numbers left out at the end of a payload
+ * are 0.
+ *
+ * <p>
+ * Boards, in accepted join_ack messages and new messages, are sent as the
+ * size followed by all squares in row-major order, each packed into just
+ * enough bits for its number plus one bit for the given flag, instead of a
+ * tuple of four numbers per non-empty square. A 9x9 board takes 51 bytes
+ * and a 25x25 one 469 bytes however many squares are filled. They are
+ * decoded back into the tuples of (x, y, v, f) described in {@link NetworkAdapter}.
+ * </p>
+ *
+ * @see MessageCodec
+ */
+public class BinaryCodec implements MessageCodec {
+
+    /** Message types by their codes. */
+    private static final MessageType[] TYPES = {
+        MessageType.QUIT, MessageType.JOIN, MessageType.JOIN_ACK, MessageType.NEW,
+        MessageType.NEW_ACK, MessageType.FILL, MessageType.FILL_ACK, MessageType.CREATE,
+        MessageType.CREATE_ACK, MessageType.LIST, MessageType.LIST_ACK, MessageType.RESUME,
+        MessageType.RESUME_ACK
+    };
+
+    /** Bit set in the first byte of every frame. */
+    private static final int FRAME = 0x80;
+
+    /** Most bytes taken by a variable-length int. */
+    private static final int MAX_VARINT_SIZE = 5;
+
+    /** Largest board size that can be encoded. */
+    private static final int MAX_BOARD_SIZE = 100;
+
+    private static final int[] EMPTY_INT_ARRAY = new int[0];
+
+    /** Return true if the given byte starts a binary frame rather than a text message. */
+    public static boolean isFrame(byte first) {
+        return (first & FRAME) != 0;
+    }
+
+    @Override
+    public ByteBuffer encode(MessageType type, int x, int y, int z, int[] others) {
+        int code = code(type);
+        if (others == null) {
+            others = EMPTY_INT_ARRAY;
+        }
+        boolean board = type == MessageType.NEW || (type == MessageType.JOIN_ACK && x != 0);
+        int size = type == MessageType.NEW ? x : y;
+        if (board && (size <= 0 || size > MAX_BOARD_SIZE)) {
+            throw new IllegalArgumentException("Not a board of size " + size);
+        }
+        int max = board ? 2 * MAX_VARINT_SIZE + (size * size * bitsPerSquare(size) + 7) / 8
+                : (3 + others.length) * MAX_VARINT_SIZE;
+        // the payload is written first, leaving room for the longest header
+        int start = 1 + MAX_VARINT_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocate(start + max);
+        buffer.position(start);
+        if (type == MessageType.NEW) {
+            putInt(buffer, size);
+            putBoard(buffer, size, others);
+        } else if (board) {
+            putInt(buffer, 1);
+            putInt(buffer, size);
+            putBoard(buffer, size, others);
+        } else {
+            putInts(buffer, x, y, z, others);
+        }
+        int length = buffer.position() - start;
+        buffer.position(start - 1 - varintSize(length));
+        buffer.put((byte) (FRAME | code));
+        putVarint(buffer, length);
+        buffer.limit(start + length);
+        buffer.position(start - 1 - varintSize(length));
+        return buffer;
+    }
+
+    @Override
+    public boolean decode(ByteBuffer in, MessageListener listener) {
+        int start = in.position();
+        int code = in.get(start) & ~FRAME & 0xFF;
+        // the length: a varint that may not be all there yet
+        int length = 0;
+        int pos = start + 1;
+        for (int shift = 0; ; shift += 7) {
+            if (pos >= in.limit()) {
+                return false;
+            }
+            byte b = in.get(pos++);
+            length |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                break;
+            }
+            if (shift >= 7 * (MAX_VARINT_SIZE - 1)) {
+                length = -1;
+                break;
+            }
+        }
+        if (length < 0) {
+            // not a frame; skip what was read
+            in.position(pos);
+            listener.messageReceived(MessageType.UNKNOWN, 0, 0, 0, EMPTY_INT_ARRAY);
+            return true;
+        }
+        if (in.limit() - pos < length) {
+            return false;
+        }
+        ByteBuffer payload = in.duplicate();
+        payload.position(pos);
+        payload.limit(pos + length);
+        in.position(pos + length);
+        if (code >= TYPES.length) {
+            listener.messageReceived(MessageType.UNKNOWN, 0, 0, 0, EMPTY_INT_ARRAY);
+            return true;
+        }
+        MessageType type = TYPES[code];
+        int x, y = 0, z = 0;
+        int[] others;
+        try {
+            if (type == MessageType.NEW) {
+                x = getInt(payload);
+                others = getBoard(payload, x);
+            } else if (type == MessageType.JOIN_ACK && payload.hasRemaining() && getInt(payload) != 0) {
+                x = 1;
+                y = getInt(payload);
+                others = getBoard(payload, y);
+            } else {
+                payload.position(pos);
+                int[] values = getInts(payload);
+                x = values.length > 0 ? values[0] : 0;
+                y = values.length > 1 ? values[1] : 0;
+                z = values.length > 2 ? values[2] : 0;
+                others = values.length > 3 ? Arrays.copyOfRange(values, 3, values.length) : EMPTY_INT_ARRAY;
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            type = MessageType.UNKNOWN;
+            x = y = z = 0;
+            others = EMPTY_INT_ARRAY;
+        }
+        listener.messageReceived(type, x, y, z, others);
+        return true;
+    }
+
+    /** Return the code of the given message type. */
+    private static int code(MessageType type) {
+        for (int i = 0; i < TYPES.length; i++) {
+            if (TYPES[i] == type) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Not a message: " + type);
+    }
+
+    /** Return the number of bits of a square of a board of the given size. */
+    private static int bitsPerSquare(int size) {
+        return 32 - Integer.numberOfLeadingZeros(size) + 1;
+    }
+
+    /** Put the given numbers, dropping the trailing zeros of x, y and z if there are no others. */
+    private static void putInts(ByteBuffer buffer, int x, int y, int z, int[] others) {
+        int n = others.length > 0 ? 3 : z != 0 ? 3 : y != 0 ? 2 : x != 0 ? 1 : 0;
+        if (n > 0) {
+            putInt(buffer, x);
+        }
+        if (n > 1) {
+            putInt(buffer, y);
+        }
+        if (n > 2) {
+            putInt(buffer, z);
+        }
+        for (int v : others) {
+            putInt(buffer, v);
+        }
+    }
+
+    /**
+     * Put all squares of a board of the given size, given as its non-empty
+     * squares, each a tuple of (x, y, v, f).
+     */
+    private static void putBoard(ByteBuffer buffer, int size, int[] squares) {
+        if (size <= 0 || squares.length % 4 != 0) {
+            throw new IllegalArgumentException("Not a board of size " + size);
+        }
+        int[] cells = new int[size * size];
+        for (int i = 0; i < squares.length; i += 4) {
+            int x = squares[i];
+            int y = squares[i + 1];
+            int v = squares[i + 2];
+            if (x < 0 || x >= size || y < 0 || y >= size || v < 0 || v > size) {
+                throw new IllegalArgumentException("Not a square of a board of size " + size);
+            }
+            cells[y * size + x] = v << 1 | (squares[i + 3] != 0 ? 1 : 0);
+        }
+        int bits = bitsPerSquare(size);
+        long acc = 0;
+        int n = 0;
+        for (int cell : cells) {
+            acc = acc << bits | cell;
+            n += bits;
+            while (n >= 8) {
+                n -= 8;
+                buffer.put((byte) (acc >>> n));
+            }
+        }
+        if (n > 0) {
+            buffer.put((byte) (acc << (8 - n)));
+        }
+    }
+
+    /** Return the non-empty squares of a board of the given size, each a tuple of (x, y, v, f). */
+    private static int[] getBoard(ByteBuffer payload, int size) {
+        if (size <= 0 || size > MAX_BOARD_SIZE) {
+            throw new IllegalArgumentException("Not a board of size " + size);
+        }
+        int bits = bitsPerSquare(size);
+        if (payload.remaining() != ((long) size * size * bits + 7) / 8) {
+            throw new IllegalArgumentException("Not a board of size " + size);
+        }
+        int[] squares = new int[4 * size * size];
+        int k = 0;
+        int mask = (1 << bits) - 1;
+        long acc = 0;
+        int n = 0;
+        for (int i = 0; i < size * size; i++) {
+            while (n < bits) {
+                acc = acc << 8 | (payload.get() & 0xFF);
+                n += 8;
+            }
+            n -= bits;
+            int cell = (int) (acc >>> n) & mask;
+            if (cell >> 1 != 0) {
+                squares[k++] = i % size;
+                squares[k++] = i / size;
+                squares[k++] = cell >> 1;
+                squares[k++] = cell & 1;
+            }
+        }
+        return Arrays.copyOf(squares, k);
+    }
+
+    /** Return the numbers of the rest of the given payload. */
+    private static int[] getInts(ByteBuffer payload) {
+        int[] values = new int[payload.remaining()]; // at least a byte each
+        int k = 0;
+        while (payload.hasRemaining()) {
+            values[k++] = getInt(payload);
+        }
+        return Arrays.copyOf(values, k);
+    }
+
+    /** Put the given number as a zigzag varint, so small negative numbers take one byte too. */
+    private static void putInt(ByteBuffer buffer, int v) {
+        putVarint(buffer, (v << 1) ^ (v >> 31));
+    }
+
+    /** Get a number put by {@link #putInt(ByteBuffer, int)}. */
+    private static int getInt(ByteBuffer payload) {
+        int v = getVarint(payload);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /** Put the given number, taken as unsigned, 7 bits per byte, the last byte without its high bit. */
+    private static void putVarint(ByteBuffer buffer, int v) {
+        while ((v & ~0x7F) != 0) {
+            buffer.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+
+    /** Get a number put by {@link #putVarint(ByteBuffer, int)}. */
+    private static int getVarint(ByteBuffer payload) {
+        int v = 0;
+        for (int shift = 0; shift < 7 * MAX_VARINT_SIZE; shift += 7) {
+            byte b = payload.get();
+            v |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return v;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /** Return the number of bytes of the given number put as a varint. */
+    private static int varintSize(int v) {
+        int n = 1;
+        while ((v & ~0x7F) != 0) {
+            v >>>= 7;
+            n++;
+        }
+        return n;
+    }
+}
@@ -11,14 +11,19 @@ package sudoku.dialog;
 
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.util.LinkedList;
+import java.awt.image.BufferedImage;
 
 import javax.swing.JPanel;
 
 import sudoku.model.Board;
+import sudoku.model.SquareSet;
 
 
 /**
@@ -26,6 +31,15 @@ import sudoku.model.Board;
  * {@link sudoku.model.Board} class. You need to write code for
  * the paint() method.
  *
+ * <p>
+ * The parts of the board that don't change during a game, its background,
+ * grid lines and given squares, are drawn once into an image that is redrawn
+ * only when the panel is resized or a new puzzle is shown, and the numbers
+ * are drawn from images made once per square size. When a board is replaced
+ * by a newer one of the same game, or the selection moves, only the squares
+ * that changed are repainted.
+ * </p>
+ *
  * @see sudoku.model.Board
  * @author Yoonsik Cheon
  */
@@ -54,10 +68,19 @@ public class BoardPanel extends JPanel {
     
     private int highlightSize;
     
+    /** Background, grid lines and given squares of the board, for the current square size. */
+    private BufferedImage background;
+
+    /** Images of the numbers 1 to the board size, at index of the number, for the current square size. */
+    private BufferedImage[] numbers = new BufferedImage[0];
+
+    /** Position of the number images within a square. */
+    private int numberX[], numberY;
+
     /** Holds the currently selected square */
     public int x_y = -1;
     
-    public LinkedList<Integer> errors;
+    public SquareSet errors;
     
 
     /** Create a new board panel to display the given board. */
@@ -67,36 +90,89 @@ public class BoardPanel extends JPanel {
             public void mouseClicked(MouseEvent e) {
             	int xy = locateSquaree(e.getX(), e.getY());
             	if (xy >= 0) {
-            		listener.clicked(xy / 100, xy % 100);
+            		int size = BoardPanel.this.board.size;
+            		listener.clicked(xy / size, xy % size);
             	}
             }
         });
     }
 
-    /** Set the board to be displayed. */
+    /**
+     * Set the board to be displayed, e.g., a newer snapshot of the same game.
+     * Only the squares whose numbers differ are repainted, unless the puzzle
+     * itself differs.
+     */
     public void setBoard(Board board) {
+    	Board old = this.board;
     	this.board = board;
+    	if(board.size != old.size)
+    		x_y = -1; //the selection may not fit a board of a different size
+    	if(board.size != old.size || !sameGivens(old, board)) {
+    		background = null;
+    		errors = null;
+    		repaint();
+    		return;
+    	}
+    	boolean changed = false;
+    	for(int i = 0; i<board.size; i++) {
+    		for(int j = 0; j<board.size; j++) {
+    			if(board.getValue(i, j) != old.getValue(i, j)) {
+    				repaintSquare(i, j);
+    				changed = true;
+    			}
+    		}
+    	}
+    	if(changed && errors != null) {
+    		errors = null; //the errors found were of the old numbers
+    		repaint();
+    	}
+    }
+
+    /** Return true if the given boards of the same size have the same given squares. */
+    private static boolean sameGivens(Board a, Board b) {
+    	for(int i = 0; i<a.size; i++) {
+    		for(int j = 0; j<a.size; j++) {
+    			if(a.isGiven(i, j) != b.isGiven(i, j))
+    				return false;
+    		}
+    	}
+    	return true;
+    }
+
+    /** Repaint the square at the given row and column only. */
+    private void repaintSquare(int row, int column) {
+    	if(squareSize == 0) {
+    		repaint(); //not painted yet
+    	} else {
+    		repaint(squareSize * column, squareSize * row, squareSize, squareSize);
+    	}
     }
     
     /**
      * Given a screen coordinate, return the indexes of the corresponding square
      * or -1 if there is no square.
-     * The indexes are encoded and returned as x*100 + y, 
+     * The indexes are encoded and returned as x*size + y, 
      * where x and y are 0-based column/row indexes.
      */
     private int locateSquaree(int x, int y) {
-    	if (x < 0 || x > board.size * squareSize
-    			|| y < 0 || y > board.size * squareSize) {
+    	if (squareSize == 0 || x < 0 || x >= board.size * squareSize
+    			|| y < 0 || y >= board.size * squareSize) {
     		return -1;
     	}
     	int xx = x / squareSize;
     	int yy = y / squareSize;
-    	return xx * 100 + yy;
+    	return xx * board.size + yy;
     }
     
-    /**stores the x and y values of the square the user selected */
+    /**stores the x and y values of the square the user selected, and repaints the old and new ones */
     void setX_y(int x_y) {
+    	if(this.x_y == x_y)
+    		return;
+    	if(this.x_y > -1)
+    		repaintSquare(this.x_y%board.size, this.x_y/board.size);
 		this.x_y = x_y;
+    	if(x_y > -1)
+    		repaintSquare(x_y%board.size, x_y/board.size);
 	}
     
     //returns the currently selected x and y values
@@ -104,29 +180,81 @@ public class BoardPanel extends JPanel {
 		return x_y;
 	}
     
-    public void setErrors(LinkedList<Integer> e) {
+    /** Show the given errors until the numbers on the board change. */
+    public void setErrors(SquareSet e) {
     	errors = e;
+    	repaint();
     }
     public void clearErrors() {
     	errors = null;
+    	repaint();
     }
 
-    /** Draw the associated board. */
+    /** Draw the associated board, only the squares within the clip. */
     @Override
     public void paint(Graphics g) {
         super.paint(g); 
 
         // determine the square size
         Dimension dim = getSize();
-        squareSize = Math.min(dim.width, dim.height) / board.size;
-        highlightSize = squareSize-1;
+        int size = Math.min(dim.width, dim.height) / board.size;
+        if(size != squareSize || numbers.length != board.size + 1) {
+        	squareSize = size;
+        	highlightSize = squareSize-1;
+        	background = null;
+        	numbers = makeNumbers(g.getFont());
+        }
+        if(squareSize <= 0)
+        	return;
+        if(background == null)
+        	background = makeBackground();
+        g.drawImage(background, 0, 0, null);
+        
+        // the squares within the clip
+        Rectangle clip = g.getClipBounds();
+        if(clip == null)
+        	clip = new Rectangle(0, 0, dim.width, dim.height);
+        int firstRow = Math.max(0, clip.y / squareSize);
+        int lastRow = Math.min(board.size - 1, (clip.y + clip.height - 1) / squareSize);
+        int firstColumn = Math.max(0, clip.x / squareSize);
+        int lastColumn = Math.min(board.size - 1, (clip.x + clip.width - 1) / squareSize);
+        
+        //if the user currently has selected a square highlights it with a pink square
+        if(x_y > -1) {
+        		g.setColor(Color.pink);
+			g.fillRect(squareSize *(x_y/board.size), squareSize * (x_y%board.size), highlightSize, highlightSize);
+        }
+        if(errors != null) {
+	        g.setColor(Color.RED);
+	        for(int i = errors.next(0); i >= 0; i = errors.next(i+1)) {
+	        	g.fillRect(squareSize * errors.column(i), squareSize * errors.row(i), highlightSize, highlightSize);
+	        }
+        }
+        for(int i = firstRow; i<=lastRow; i++) {
+        		for(int j = firstColumn; j<=lastColumn; j++) {
+        			int v = board.getValue(i, j);
+        			if(v != 0) {
+        				g.drawImage(numbers[v], squareSize *j + numberX[v], squareSize *i + numberY, null);
+        			}
+        		}
+        	}
+    }
+        
+    /** Draw the background, the grid lines and the given squares of the board into a new image. */
+    private BufferedImage makeBackground() {
+    	int width = squareSize * board.size + 1;
+    	BufferedImage image = new BufferedImage(width, width, BufferedImage.TYPE_INT_RGB);
+    	Graphics g = image.getGraphics();
+    	g.setColor(getBackground());
+    	g.fillRect(0, 0, width, width);
         // draw background
         g.setColor(boardColor);
         g.fillRect(0, 0, squareSize * board.size, squareSize * board.size);
         
         //Draw Grid
+        int boxSize = board.boxSize();
         for(int i = 0; i<=board.size; i++) {
-        		if(i%Math.sqrt(board.size) == 0) {
+        		if(i%boxSize == 0) {
         			g.setColor(Color.black);
         		}
         		else {
@@ -136,37 +264,45 @@ public class BoardPanel extends JPanel {
         		g.drawLine(squareSize *i, 0, squareSize *i, board.size*squareSize);
         }
         
+        g.setColor(Color.LIGHT_GRAY);
         for(int i = 0; i<board.size; i++) {
     		for(int j = 0; j<board.size; j++) {
-    			g.setColor(Color.LIGHT_GRAY);
-    			if(board.boardGenerated[i][j]) {
+    			if(board.isGiven(i, j)) {
     				g.fillRect(squareSize *(j), squareSize * (i), highlightSize, highlightSize);
     			}
     		}
         }
-        
-        //if the user currently has selected a square highlights it with a pink square
-        if(x_y > -1) {
-        		g.setColor(Color.pink);
-			g.fillRect(squareSize *(x_y/100), squareSize * (x_y%100), highlightSize, highlightSize);
-        }
-        if(errors != null) {
-	        for(int i = 0; i<errors.size(); i++) {
-	        	g.setColor(Color.RED);
-	        	g.fillRect(squareSize *(errors.get(i)/100), squareSize * (errors.get(i)%100), highlightSize, highlightSize);
-	        }
-	        errors = null;
-        }
-        for(int i = 0; i<board.size; i++) {
-        		for(int j = 0; j<board.size; j++) {
-        			g.setColor(Color.black);
-        			if(board.boardInputs[i][j] != 0)
-        				g.drawString(Integer.toString(board.boardInputs[i][j]), squareSize/3 + squareSize *j, squareSize*5/8 + squareSize *i);
-        		}
-        	}
-        
-        
-        
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Draw each number of the board, scaled with the squares, into an image
+     * just big enough for it, and find where to draw it to center it in a
+     * square, as they can have two digits on big boards.
+     */
+    private BufferedImage[] makeNumbers(Font font) {
+    	BufferedImage[] images = new BufferedImage[board.size + 1];
+    	numberX = new int[board.size + 1];
+    	if(squareSize <= 0)
+    		return images;
+    	font = font.deriveFont(Font.PLAIN, Math.max(8, squareSize/2));
+    	FontMetrics metrics = getFontMetrics(font);
+    	int height = metrics.getAscent() + metrics.getDescent();
+    	numberY = (squareSize - metrics.getAscent() - metrics.getDescent())/2; //the baseline as before, less the ascent
+    	for(int v = 1; v<=board.size; v++) {
+    		String number = Integer.toString(v);
+    		int width = Math.max(1, metrics.stringWidth(number));
+    		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+    		Graphics2D g = image.createGraphics();
+    		g.setFont(font);
+    		g.setColor(Color.black);
+    		g.drawString(number, 0, metrics.getAscent());
+    		g.dispose();
+    		images[v] = image;
+    		numberX[v] = (squareSize - width)/2;
+    	}
+    	return images;
     }
 
 }
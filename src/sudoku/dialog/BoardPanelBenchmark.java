@@ -0,0 +1,113 @@
+package sudoku.dialog;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import sudoku.model.Board;
+
+/**
+ * Compares painting a board the old way, everything from scratch on each
+ * repaint, with {@link BoardPanel}, which draws its cached background and
+ * number images. For 9x9 and 25x25 boards, half filled, it prints the
+ * average time of a repaint of the whole board and of one square, as after
+ * a fill. The old way always painted the whole board. Painting is done
+ * into an image, so no display is needed.
+ *
+ * <pre>
+ *  java sudoku.dialog.BoardPanelBenchmark [rounds]
+ * </pre>
+ */
+public class BoardPanelBenchmark {
+
+    /** Width and height of the panel in pixels. */
+    private static final int PANEL_SIZE = 600;
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        BufferedImage image = new BufferedImage(PANEL_SIZE, PANEL_SIZE, BufferedImage.TYPE_INT_RGB);
+        System.out.println("size  paint    area    us/paint");
+        for (int size : new int[] { 9, 25 }) {
+            Board board = halfFilled(size);
+            BoardPanel panel = new BoardPanel(board, (x, y) -> { });
+            panel.setSize(PANEL_SIZE, PANEL_SIZE);
+            int square = PANEL_SIZE / size;
+            for (int pass = 0; pass < 2; pass++) { // the first pass warms up
+                for (int mode = 0; mode < 3; mode++) {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < rounds; i++) {
+                        Graphics2D g = image.createGraphics();
+                        if (mode == 0) {
+                            oldPaint(g, board, new Dimension(PANEL_SIZE, PANEL_SIZE));
+                        } else {
+                            if (mode == 2) {
+                                g.setClip((i % size) * square, (i / size % size) * square, square, square);
+                            }
+                            panel.paint(g);
+                        }
+                        g.dispose();
+                    }
+                    long time = System.nanoTime() - start;
+                    if (pass > 0) {
+                        System.out.printf("%4d  %-7s  %-6s  %8.1f%n", size, mode == 0 ? "old" : "cached",
+                                mode == 2 ? "square" : "board", time / 1000.0 / rounds);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Return a puzzle of the given size with half of its empty squares filled. */
+    private static Board halfFilled(int size) {
+        Board board = new Board(size);
+        int[][] solution = board.getSolution();
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                if (board.getValue(i, j) == 0 && (i + j) % 2 == 0) {
+                    board.setValue(i, j, solution[i][j]);
+                }
+            }
+        }
+        return board;
+    }
+
+    /** The old paint method of BoardPanel, without a selection or errors. */
+    private static void oldPaint(Graphics g, Board board, Dimension dim) {
+        g.setColor(Color.white);
+        g.fillRect(0, 0, dim.width, dim.height); // as super.paint does
+        int squareSize = Math.min(dim.width, dim.height) / board.size;
+        int highlightSize = squareSize - 1;
+        g.setColor(new Color(247, 223, 150));
+        g.fillRect(0, 0, squareSize * board.size, squareSize * board.size);
+        for (int i = 0; i <= board.size; i++) {
+            g.setColor(i % board.boxSize() == 0 ? Color.black : Color.gray);
+            g.drawLine(0, squareSize * i, board.size * squareSize, squareSize * i);
+            g.drawLine(squareSize * i, 0, squareSize * i, board.size * squareSize);
+        }
+        for (int i = 0; i < board.size; i++) {
+            for (int j = 0; j < board.size; j++) {
+                g.setColor(Color.LIGHT_GRAY);
+                if (board.isGiven(i, j)) {
+                    g.fillRect(squareSize * j, squareSize * i, highlightSize, highlightSize);
+                }
+            }
+        }
+        g.setFont(g.getFont().deriveFont(Font.PLAIN, Math.max(8, squareSize / 2)));
+        FontMetrics metrics = g.getFontMetrics();
+        int baseline = (squareSize + metrics.getAscent() - metrics.getDescent()) / 2;
+        for (int i = 0; i < board.size; i++) {
+            for (int j = 0; j < board.size; j++) {
+                g.setColor(Color.black);
+                if (board.getValue(i, j) != 0) {
+                    String number = Integer.toString(board.getValue(i, j));
+                    g.drawString(number, (squareSize - metrics.stringWidth(number)) / 2 + squareSize * j,
+                            baseline + squareSize * i);
+                }
+            }
+        }
+    }
+}
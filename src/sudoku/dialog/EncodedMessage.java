@@ -0,0 +1,63 @@
+package sudoku.dialog;
+
+import java.nio.ByteBuffer;
+
+import sudoku.dialog.NetworkAdapter.MessageType;
+
+/**
+ * A message sent to many players, e.g., a fill forwarded to the players of
+ * a room, encoded at most once per {@link MessageCodec} however many players
+ * get it. The bytes are kept in a read-only buffer shared by all players,
+ * each of which writes its own duplicate of it, so neither the encoding nor
+ * the bytes are repeated per player.
+ *
+ * <pre>
+ *  EncodedMessage message = new EncodedMessage(MessageType.FILL, 1, 2, 3, null);
+ *  for (Player player : players) {
+ *      player.send(message);
+ *  }
+ * </pre>
+ *
+ * @see GameHub.Player#send(EncodedMessage)
+ */
+public class EncodedMessage {
+
+    /** The message, given as the arguments of {@link MessageCodec#encode}. */
+    public final MessageType type;
+    public final int x;
+    public final int y;
+    public final int z;
+    public final int[] others;
+
+    /** Text and binary encodings of the message, made when first asked for. */
+    private volatile ByteBuffer text;
+    private volatile ByteBuffer binary;
+
+    /** Create a message of the given type and arguments; others may be null. */
+    public EncodedMessage(MessageType type, int x, int y, int z, int[] others) {
+        this.type = type;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.others = others;
+    }
+
+    /**
+     * Return the message encoded with the given codec, as a new buffer ready
+     * to be written that shares its read-only bytes with those returned
+     * before. The message is encoded the first time only.
+     */
+    public ByteBuffer encode(MessageCodec codec) {
+        boolean isBinary = codec == MessageCodec.BINARY;
+        ByteBuffer bytes = isBinary ? binary : text;
+        if (bytes == null) {
+            bytes = codec.encode(type, x, y, z, others).asReadOnlyBuffer();
+            if (isBinary) {
+                binary = bytes;
+            } else {
+                text = bytes;
+            }
+        }
+        return bytes.duplicate();
+    }
+}
@@ -0,0 +1,701 @@
+package sudoku.dialog;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import sudoku.dialog.NetworkAdapter.MessageType;
+import sudoku.model.Board;
+import sudoku.model.ConcurrentBoard;
+import sudoku.model.PuzzlePool;
+
+/**
+ * The rooms of a server hosting many shared games. Each room has an id, a
+ * board, the players solving it and a sequence number counting the changes
+ * made to the board. Players can create a room with a new puzzle, join a
+ * given room or any room with space left, and list the rooms; see the
+ * create, join and list messages of {@link NetworkAdapter}.
+ *
+ * <p>
+ * The state of a room is guarded by one of a fixed set of locks chosen by
+ * the room id, so fills in different rooms rarely wait for each other and
+ * never wait for a lock of the whole hub. The rooms themselves are kept in
+ * concurrent collections.
+ * </p>
+ *
+ * <p>
+ * The board of a room is a {@link ConcurrentBoard}, whose squares players
+ * fill in parallel without the room's lock, each fill changing its square
+ * only if it still has the number the player saw. If two players fill the
+ * same square at once, one of them wins and the other is told the number
+ * the square has instead of getting an ack. The lock is then taken only to
+ * number the change and send it, with the number the square has by then.
+ * </p>
+ *
+ * <p>
+ * A hub created with a {@link GameJournal} logs every change to the board
+ * of a room in it, and takes a snapshot of the board when the room is
+ * created, gets a new game, or has had a number of fills since the last
+ * one. It restores the games of the journal when created, as rooms
+ * whose seats are all held for their players to resume them.
+ * </p>
+ *
+ * <p>
+ * Every change to a board is sent with its sequence number, and the last
+ * changes of each room are kept. A player whose connection is lost is
+ * dropped rather than removed: its seat is held for a while, so nobody
+ * else joins in its place and the room is kept even if left empty, and
+ * the player can resume it with the sequence number of the last
+ * change it got, receiving only the changes it missed, or the whole board
+ * if it missed too many; see the resume message of {@link NetworkAdapter}.
+ * Each player is given a random token for its seat, with its resume_ack,
+ * and a held seat is resumed only with its token, so nobody else takes it
+ * by knowing the room id alone.
+ * </p>
+ *
+ * <p>
+ * A new room gets its puzzle from {@link PuzzlePool#takeAsync(int)}, so the
+ * thread creating or joining a room never waits for a puzzle to be
+ * generated: if none is ready, the room is made on the pool's thread once
+ * one is, and the room returned, as a future, is done only then.
+ * </p>
+ *
+ * <pre>
+ *  GameHub hub = new GameHub(2);
+ *  GameHub.Room room = hub.join(player, 0).join();
+ *  hub.fill(room, player, 1, 2, 3);
+ *  hub.leave(room, player);
+ * </pre>
+ *
+ * @see GameServer
+ */
+public class GameHub {
+
+    /** A player of a room, to whom the room sends messages. */
+    public interface Player {
+
+        /**
+         * Send the given message to this player, given as the arguments of
+         * {@link NetworkAdapter.MessageListener#messageReceived}.
+         */
+        void send(MessageType type, int x, int y, int z, int[] others);
+
+        /**
+         * Send the given message, which is sent to other players as well;
+         * by default, as its arguments. Override to write its shared bytes.
+         */
+        default void send(EncodedMessage message) {
+            send(message.type, message.x, message.y, message.z, message.others);
+        }
+    }
+
+    /** A shared game: a board and the players solving it. */
+    public static class Room {
+
+        private final int id;
+
+        /** Board of the game; read without the lock by fills, so volatile. */
+        private volatile ConcurrentBoard board;
+
+        private final List<Player> players = new ArrayList<>();
+
+        /** Resume token of the seat of each player. */
+        private final Map<Player, Integer> tokens = new HashMap<>();
+
+        /** Number of changes made to the board so far. */
+        private long sequence;
+
+        /** True if this room is in the queue of rooms with space left. */
+        private boolean open;
+
+        /** True if this room was removed from the hub because its players left. */
+        private boolean closed;
+
+        /** Last changes to the board, by sequence number modulo HISTORY_SIZE, each packed as x,y,v. */
+        private final int[] history = new int[HISTORY_SIZE];
+
+        /** Sequence number of the board the history starts from; older changes are not kept. */
+        private long historyStart;
+
+        /**
+         * Seats of dropped players, the oldest first; each is held for its
+         * player to resume until RESUME_TIMEOUT after it was dropped.
+         */
+        private final ArrayDeque<Seat> held = new ArrayDeque<>();
+
+        Room(int id, Board board) {
+            this.id = id;
+            this.board = new ConcurrentBoard(board);
+        }
+
+        /** Return the id of this room. */
+        public int id() {
+            return id;
+        }
+    }
+
+    /** A seat held for a dropped player. */
+    private static class Seat {
+
+        /** Token the player resumes the seat with. */
+        final int token;
+
+        /** Time at which the player was dropped. */
+        final long since;
+
+        Seat(int token, long since) {
+            this.token = token;
+            this.since = since;
+        }
+    }
+
+    /** Number of locks guarding the rooms; a power of two. */
+    private static final int STRIPES = 64;
+
+    /** Size of the board of a room created for players joining any room. */
+    private static final int DEFAULT_BOARD_SIZE = 9;
+
+    /** Number of the last changes of a room kept for players resuming it. */
+    private static final int HISTORY_SIZE = 256;
+
+    /** How long a room left empty by dropped players is kept, in milliseconds. */
+    private static final long RESUME_TIMEOUT = 60000;
+
+    /** Least time between two looks for rooms to remove, in milliseconds. */
+    private static final long EXPIRE_INTERVAL = 1000;
+
+    /** Locks guarding the rooms; room r is guarded by locks[r % STRIPES]. */
+    private final Object[] locks = new Object[STRIPES];
+
+    /** Rooms with players, by id. */
+    private final Map<Integer, Room> rooms = new ConcurrentHashMap<>();
+
+    /** Rooms with space left, the oldest first. */
+    private final Queue<Room> openRooms = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger lastId = new AtomicInteger();
+
+    /** Time of the last look for empty rooms kept too long. */
+    private final AtomicLong lastExpire = new AtomicLong();
+
+    /** Maximum number of players of a room. */
+    private final int roomCapacity;
+
+    /** Journal keeping the games on disk, or null. */
+    private final GameJournal journal;
+
+    /** Makes the resume tokens of seats, so they can't be guessed. */
+    private final SecureRandom random = new SecureRandom();
+
+    /** Create a hub whose rooms take up to the given number of players. */
+    public GameHub(int roomCapacity) {
+        this.roomCapacity = roomCapacity;
+        this.journal = null;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Create a hub whose rooms take up to the given number of players, and
+     * that keeps its games in the given journal, restoring those in it.
+     */
+    public GameHub(int roomCapacity, GameJournal journal) throws IOException {
+        this.roomCapacity = roomCapacity;
+        this.journal = journal;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        for (GameJournal.Game game : journal.restore()) {
+            Room room = new Room(game.id, game.board);
+            room.sequence = game.sequence;
+            room.historyStart = game.sequence;
+            if (game.tokens.length == 0) {
+                journal.remove(game.id); // nobody could resume it
+                continue;
+            }
+            long now = System.currentTimeMillis();
+            for (int token : game.tokens) {
+                room.held.add(new Seat(token, now)); // removed if nobody resumes it in time
+            }
+            rooms.put(room.id, room);
+            if (game.id > lastId.get()) {
+                lastId.set(game.id);
+            }
+        }
+    }
+
+    /** Return the number of rooms with players. */
+    public int getRoomCount() {
+        return rooms.size();
+    }
+
+    /**
+     * Close the journal of this hub, if any, so the games in it are kept
+     * as they are for the next start, even as their players leave.
+     */
+    public void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Create a room with a new puzzle of the given size and put the given
+     * player in it, sending the player a create_ack and a join_ack message.
+     * Return the new room, done once the puzzle is ready, or null if the
+     * size is not supported.
+     */
+    public CompletableFuture<Room> create(Player player, int size) {
+        expire();
+        if (!isValidSize(size)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return newRoom(player, size, true);
+    }
+
+    /**
+     * Put the given player in the room with the given id, or in any room
+     * with space left if the id is 0, creating a room if there is none.
+     * The player is sent the board of the room in a join_ack message.
+     * Return the room, done once its puzzle is ready if it is created, or
+     * null if there is no such room or it is full.
+     */
+    public CompletableFuture<Room> join(Player player, int id) {
+        expire();
+        if (id != 0) {
+            Room room = rooms.get(id);
+            if (room == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            synchronized (lock(room)) {
+                if (room.closed || !hasSeat(room)) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                add(room, player);
+            }
+            return CompletableFuture.completedFuture(room);
+        }
+        Room room;
+        while ((room = openRooms.peek()) != null) {
+            synchronized (lock(room)) {
+                if (!room.closed && hasSeat(room)) {
+                    add(room, player);
+                    return CompletableFuture.completedFuture(room);
+                }
+                if (openRooms.remove(room)) {
+                    room.open = false;
+                }
+            }
+        }
+        return newRoom(player, DEFAULT_BOARD_SIZE, false);
+    }
+
+    /**
+     * Remove the given player from the given room, freeing its seat, and
+     * remove the room if it is left empty with no seat held.
+     */
+    public void leave(Room room, Player player) {
+        synchronized (lock(room)) {
+            if (!room.players.remove(player)) {
+                return;
+            }
+            room.tokens.remove(player);
+            if (room.players.isEmpty() && room.held.isEmpty()) {
+                remove(room);
+            } else {
+                saveSeats(room);
+                updateOpen(room);
+            }
+        }
+    }
+
+    /**
+     * Remove the given player, whose connection is lost, from the given room,
+     * holding its seat for a while, so the player can resume the room and
+     * nobody else joins in its place. The room is kept as long as a seat is
+     * held, even if left empty.
+     */
+    public void drop(Room room, Player player) {
+        synchronized (lock(room)) {
+            if (room.players.remove(player)) {
+                room.held.add(new Seat(room.tokens.remove(player), System.currentTimeMillis()));
+            }
+        }
+    }
+
+    /**
+     * Put the given player back in the seat with the given token of the
+     * room with the given id, whose changes it got up to the given sequence
+     * number. The player is sent the changes it missed as fill messages, or
+     * the whole board in a join_ack message if they are not all kept, and
+     * then a resume_ack message. Return the room, or null if there is no
+     * such room or no seat is held for the token.
+     */
+    public Room resume(Player player, int id, long sequence, int token) {
+        expire();
+        Room room = rooms.get(id);
+        if (room == null) {
+            return null;
+        }
+        synchronized (lock(room)) {
+            if (room.closed || !takeSeat(room, token)) {
+                return null;
+            }
+            room.players.add(player);
+            room.tokens.put(player, token);
+            if (sequence >= room.historyStart && sequence <= room.sequence
+                    && room.sequence - sequence <= HISTORY_SIZE) {
+                for (long s = sequence + 1; s <= room.sequence; s++) {
+                    int change = room.history[(int) (s % HISTORY_SIZE)];
+                    player.send(MessageType.FILL, change >>> 16, (change >>> 8) & 0xFF, change & 0xFF,
+                            new int[] { (int) s });
+                }
+            } else {
+                player.send(MessageType.JOIN_ACK, 1, room.board.size, 0, squares(room.board.toBoard()));
+            }
+            player.send(MessageType.RESUME_ACK, 1, room.id, (int) room.sequence, new int[] { token });
+            updateOpen(room);
+        }
+        return room;
+    }
+
+    /** Take the seat held with the given token in the given room, if any; the room's lock is held. */
+    private boolean takeSeat(Room room, int token) {
+        for (Iterator<Seat> seats = room.held.iterator(); seats.hasNext(); ) {
+            if (seats.next().token == token) {
+                seats.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fill the square at column x and row y of the board of the given room
+     * with the given number, whatever number it has, ack it and tell the
+     * other players; as {@link #fill(Room, Player, int, int, int, int)}, but
+     * the last of two fills of a square at once wins without a conflict.
+     * It is for players that don't send the number they saw in the square.
+     */
+    public boolean fill(Room room, Player from, int x, int y, int v) {
+        return fill(room, from, x, y, -1, v);
+    }
+
+    /**
+     * Fill the square at column x and row y of the board of the given room
+     * with the given number if it has the expected one, the number the
+     * player saw in it or 0 if it was empty, ack it and tell the other
+     * players. If another player changed the square first, it is a conflict:
+     * the player is sent a fill message without a sequence number, with the
+     * number the square has, instead of an ack.
+     *
+     * <p>
+     * The square is filled without the room's lock; the ack and the fill
+     * messages carry the number it has once the lock is taken, which
+     * differs from the one filled if another player changed the square
+     * right after. A fill that leaves the square as it was is only acked,
+     * with the current sequence number. Return false if the square is not
+     * changed: it already had the number, is given or outside the board, or
+     * the fill is a conflict, or a new game was started meanwhile. The
+     * fill that completes the board is snapshotted to the journal at once.
+     * </p>
+     *
+     * @param expected Number expected in the square, or -1 to fill it whatever its number.
+     */
+    public boolean fill(Room room, Player from, int x, int y, int expected, int v) {
+        ConcurrentBoard board = room.board; // read without the lock, checked again with it
+        ConcurrentBoard.Result result = expected < 0 ? board.overwrite(y, x, v) : board.fill(y, x, expected, v);
+        if (result == ConcurrentBoard.Result.GIVEN || result == ConcurrentBoard.Result.INVALID) {
+            return false;
+        }
+        synchronized (lock(room)) {
+            if (room.board != board) {
+                return false;
+            }
+            v = board.getValue(y, x); // that of the last fill of the square
+            if (result == ConcurrentBoard.Result.CONFLICT) {
+                from.send(MessageType.FILL, x, y, v, null);
+                return false;
+            }
+            if (result == ConcurrentBoard.Result.UNCHANGED) {
+                from.send(MessageType.FILL_ACK, x, y, v, new int[] { (int) room.sequence }); // nothing to tell the others
+                return false;
+            }
+            room.sequence++;
+            room.history[(int) (room.sequence % HISTORY_SIZE)] = x << 16 | y << 8 | v;
+            if (journal != null) {
+                journal.fill(room.id, room.sequence, x, y, v);
+                if (result == ConcurrentBoard.Result.COMPLETED
+                        || room.sequence % journal.getSnapshotInterval() == 0) {
+                    journal.snapshot(room.id, board.toBoard(), room.sequence);
+                }
+            }
+            int[] sequence = { (int) room.sequence };
+            from.send(MessageType.FILL_ACK, x, y, v, sequence);
+            broadcast(room, from, MessageType.FILL, x, y, v, sequence);
+            return true;
+        }
+    }
+
+    /** Return true if every square of the board of the given room is filled. */
+    public boolean isFull(Room room) {
+        return room.board.isSolved();
+    }
+
+    /**
+     * Start a new game in the given room with the given board, encoded as in
+     * the new message, ack it and tell the other players. Return false if the
+     * board is not valid.
+     */
+    public boolean newGame(Room room, Player from, int size, int[] squares) {
+        Board board = toBoard(size, squares);
+        if (board == null) {
+            return false;
+        }
+        synchronized (lock(room)) {
+            room.board = new ConcurrentBoard(board);
+            room.sequence++;
+            room.historyStart = room.sequence;
+            if (journal != null) {
+                journal.snapshot(room.id, board, room.sequence);
+            }
+            from.send(MessageType.NEW_ACK, 1, 0, 0, null);
+            broadcast(room, from, MessageType.NEW, size, 0, 0, squares);
+            return true;
+        }
+    }
+
+    /**
+     * Return the rooms as tuples of (r, p, s), where r is the room id, p is
+     * the number of players and s is the board size, as in the list_ack message.
+     */
+    public int[] list() {
+        expire();
+        int[] list = new int[3 * rooms.size()];
+        int k = 0;
+        for (Room room : rooms.values()) {
+            if (k + 3 > list.length) {
+                break; // rooms were added while listing
+            }
+            synchronized (lock(room)) {
+                list[k++] = room.id;
+                list[k++] = room.players.size();
+                list[k++] = room.board.size;
+            }
+        }
+        return Arrays.copyOf(list, k);
+    }
+
+    /** Return the number of changes made to the board of the given room. */
+    public long sequence(Room room) {
+        synchronized (lock(room)) {
+            return room.sequence;
+        }
+    }
+
+    /** Return the lock guarding the given room. */
+    private Object lock(Room room) {
+        return locks[room.id & (STRIPES - 1)];
+    }
+
+    /**
+     * Create a room with a new puzzle of the given size and put the given
+     * player in it, first sending it a create_ack message if ack is true.
+     * If no puzzle is ready, this is done on the thread of the puzzle pool
+     * once one is generated.
+     */
+    private CompletableFuture<Room> newRoom(Player player, int size, boolean ack) {
+        return PuzzlePool.getDefault().takeAsync(size).thenApply(board -> {
+            Room room = new Room(lastId.incrementAndGet(), board);
+            synchronized (lock(room)) {
+                rooms.put(room.id, room);
+                if (journal != null) {
+                    journal.snapshot(room.id, board, room.sequence);
+                }
+                if (ack) {
+                    player.send(MessageType.CREATE_ACK, 1, room.id, 0, null);
+                }
+                add(room, player);
+            }
+            return room;
+        });
+    }
+
+    /** Add the given player to the given room and send it the board; the room's lock is held. */
+    private void add(Room room, Player player) {
+        int token = newToken();
+        room.players.add(player);
+        room.tokens.put(player, token);
+        saveSeats(room);
+        player.send(MessageType.JOIN_ACK, 1, room.board.size, 0, squares(room.board.toBoard()));
+        player.send(MessageType.RESUME_ACK, 1, room.id, (int) room.sequence, new int[] { token });
+        updateOpen(room);
+    }
+
+    /** Return a new random resume token, positive so it is short in any codec. */
+    private int newToken() {
+        int token;
+        do {
+            token = random.nextInt() & Integer.MAX_VALUE;
+        } while (token == 0);
+        return token;
+    }
+
+    /** Save the tokens of the seats of the given room, taken or held, in the journal, if any; the room's lock is held. */
+    private void saveSeats(Room room) {
+        if (journal == null) {
+            return;
+        }
+        int[] tokens = new int[room.tokens.size() + room.held.size()];
+        int i = 0;
+        for (int token : room.tokens.values()) {
+            tokens[i++] = token;
+        }
+        for (Seat seat : room.held) {
+            tokens[i++] = seat.token;
+        }
+        journal.seats(room.id, tokens);
+    }
+
+    /** Return true if the given room has a seat neither taken nor held; the room's lock is held. */
+    private boolean hasSeat(Room room) {
+        return room.players.size() + room.held.size() < roomCapacity;
+    }
+
+    /** Put the given room in or out of the queue of rooms with space left; the room's lock is held. */
+    private void updateOpen(Room room) {
+        if (!hasSeat(room)) {
+            if (room.open) {
+                openRooms.remove(room);
+                room.open = false;
+            }
+        } else if (!room.open) {
+            room.open = true;
+            openRooms.add(room);
+        }
+    }
+
+    /** Remove the given room from this hub; the room's lock is held. */
+    private void remove(Room room) {
+        room.closed = true;
+        rooms.remove(room.id);
+        openRooms.remove(room);
+        room.open = false;
+        if (journal != null) {
+            journal.remove(room.id);
+        }
+    }
+
+    /**
+     * Free the seats held for dropped players too long ago, removing the
+     * rooms left empty, at most once per EXPIRE_INTERVAL.
+     */
+    private void expire() {
+        long now = System.currentTimeMillis();
+        long last = lastExpire.get();
+        if (now - last < EXPIRE_INTERVAL || !lastExpire.compareAndSet(last, now)) {
+            return;
+        }
+        for (Room room : rooms.values()) {
+            synchronized (lock(room)) {
+                Seat dropped = room.held.peek();
+                if (dropped == null || now - dropped.since <= RESUME_TIMEOUT) {
+                    continue;
+                }
+                while ((dropped = room.held.peek()) != null && now - dropped.since > RESUME_TIMEOUT) {
+                    room.held.poll();
+                }
+                if (room.players.isEmpty() && room.held.isEmpty()) {
+                    remove(room);
+                } else {
+                    saveSeats(room);
+                    updateOpen(room);
+                }
+            }
+        }
+    }
+
+    /**
+     * Send the given message to the players of the given room except the
+     * sender, encoding it once for all of them.
+     */
+    private void broadcast(Room room, Player from, MessageType type, int x, int y, int z, int[] others) {
+        EncodedMessage message = null;
+        for (Player player : room.players) {
+            if (player != from) {
+                if (message == null) {
+                    message = new EncodedMessage(type, x, y, z, others);
+                }
+                player.send(message);
+            }
+        }
+    }
+
+    /** Return true if boards of the given size are supported: 4x4 to 25x25 with square boxes. */
+    private static boolean isValidSize(int size) {
+        int box = (int) Math.round(Math.sqrt(size));
+        return size >= 4 && size <= 25 && box * box == size;
+    }
+
+    /**
+     * Return the non-empty squares of the given board as tuples of (x, y, v, f),
+     * as in the join_ack and new messages.
+     */
+    static int[] squares(Board board) {
+        int size = board.size;
+        int[] squares = new int[4 * size * size];
+        int k = 0;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int v = board.getValue(y, x);
+                if (v != 0) {
+                    squares[k++] = x;
+                    squares[k++] = y;
+                    squares[k++] = v;
+                    squares[k++] = board.isGiven(y, x) ? 1 : 0;
+                }
+            }
+        }
+        return Arrays.copyOf(squares, k);
+    }
+
+    /**
+     * Return a board of the given size with the given squares, encoded as
+     * in the join_ack and new messages, or null if they are not valid.
+     */
+    static Board toBoard(int size, int[] squares) {
+        if (!isValidSize(size) || squares.length % 4 != 0) {
+            return null;
+        }
+        int[][] values = new int[size][size];
+        for (int i = 0; i < squares.length; i += 4) {
+            int x = squares[i];
+            int y = squares[i + 1];
+            int v = squares[i + 2];
+            if (x < 0 || x >= size || y < 0 || y >= size || v < 1 || v > size) {
+                return null;
+            }
+            values[y][x] = v;
+        }
+        Board board = new Board(values, null);
+        for (int i = 0; i < squares.length; i += 4) {
+            if (squares[i + 3] == 0) {
+                board.setGiven(squares[i + 1], squares[i], false);
+            }
+        }
+        return board;
+    }
+}
@@ -0,0 +1,567 @@
+package sudoku.dialog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+import sudoku.model.Board;
+
+/**
+ * Keeps the games of a {@link GameHub} on disk so they survive a crash or
+ * a restart of the server. Each game (room) has three files in the journal
+ * directory: a snapshot of its board, room-r.snap, an append-only log
+ * of the fills made since, room-r.log, and the resume tokens of its seats,
+ * room-r.seats, so that its players can resume it after a restart. A fill
+ * is logged as a record of 12 bytes: the sequence number of the change, the
+ * column, row and number, and a check byte to find a record torn by a crash.
+ *
+ * <p>
+ * Records and snapshots are written by a single background thread in the
+ * order they are given. The thread takes all pending records at once, writes
+ * those of each game with one write and forces each log to disk once for
+ * the whole batch (group commit), so a busy server syncs far fewer times
+ * than it fills. The callers don't wait for the disk; call {@link #sync()}
+ * to wait until everything given so far is durable.
+ * </p>
+ *
+ * <p>
+ * Taking a snapshot compacts the log of a game: the snapshot is written to
+ * a temporary file, synced and renamed over the old one, and then the log is
+ * emptied, as all its records are in the snapshot. A game is restored by
+ * loading its snapshot and replaying the records of its log newer than the
+ * snapshot, stopping at the first torn record.
+ * </p>
+ *
+ * <pre>
+ *  GameJournal journal = new GameJournal(Paths.get("games"));
+ *  for (GameJournal.Game game : journal.restore()) { ... }
+ *  journal.snapshot(7, board, 0);
+ *  journal.seats(7, new int[] { 5821 });
+ *  journal.fill(7, 1, 2, 3, 4);
+ *  ...
+ *  journal.close();
+ * </pre>
+ *
+ * @see GameHub
+ */
+public class GameJournal implements Closeable {
+
+    /** A game restored from the journal. */
+    public static class Game {
+
+        /** Id of the room of the game. */
+        public final int id;
+
+        public final Board board;
+
+        /** Sequence number of the last change made to the board. */
+        public final long sequence;
+
+        /** Resume tokens of the seats of the room, empty if they are not known. */
+        public final int[] tokens;
+
+        Game(int id, Board board, long sequence, int[] tokens) {
+            this.id = id;
+            this.board = board;
+            this.sequence = sequence;
+            this.tokens = tokens;
+        }
+    }
+
+    /** Number of fills of a game between two snapshots, by default. */
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 256;
+
+    /** Bytes of a fill record: sequence, column, row, number and check byte. */
+    private static final int RECORD_SIZE = 12;
+
+    /** First int of every snapshot file, "SUDK". */
+    private static final int SNAPSHOT_MAGIC = 0x5355444B;
+
+    /** First int of every seats file, "SEAT". */
+    private static final int SEATS_MAGIC = 0x53454154;
+
+    /** Bit of a square of a snapshot set if the square is given. */
+    private static final int GIVEN = 0x80;
+
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+    private static final String LOG_SUFFIX = ".log";
+
+    private static final String SEATS_SUFFIX = ".seats";
+
+    /** A record, snapshot or other work for the background thread. */
+    private static class Task {
+
+        static final int FILL = 0, SNAPSHOT = 1, REMOVE = 2, SYNC = 3, CLOSE = 4, SEATS = 5;
+
+        final int kind;
+        final int room;
+        final long sequence;
+        final int x, y, v;
+        final Board board;
+        final int[] tokens;
+        final CountDownLatch done;
+
+        Task(int kind, int room, long sequence, int x, int y, int v, Board board, CountDownLatch done) {
+            this(kind, room, sequence, x, y, v, board, null, done);
+        }
+
+        Task(int kind, int room, long sequence, int x, int y, int v, Board board, int[] tokens,
+                CountDownLatch done) {
+            this.kind = kind;
+            this.room = room;
+            this.sequence = sequence;
+            this.x = x;
+            this.y = y;
+            this.v = v;
+            this.board = board;
+            this.tokens = tokens;
+            this.done = done;
+        }
+    }
+
+    private final Path dir;
+
+    private final int snapshotInterval;
+
+    private final BlockingQueue<Task> tasks = new LinkedBlockingQueue<>();
+
+    /** Open logs by room id; used only by the background thread. */
+    private final Map<Integer, FileChannel> logs = new HashMap<>();
+
+    private final Thread committer;
+
+    /** Number of batches committed. */
+    private volatile long commitCount;
+
+    /** First error writing the journal, if any. */
+    private volatile IOException failure;
+
+    /** True once closed; records given then are ignored. */
+    private volatile boolean closed;
+
+    /** Create a journal in the given directory, creating it if needed. */
+    public GameJournal(Path dir) throws IOException {
+        this(dir, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    /**
+     * Create a journal in the given directory, creating it if needed.
+     *
+     * @param dir Directory of the files of the journal.
+     * @param snapshotInterval Number of fills of a game between two snapshots.
+     */
+    public GameJournal(Path dir, int snapshotInterval) throws IOException {
+        this.dir = dir;
+        this.snapshotInterval = Math.max(1, snapshotInterval);
+        Files.createDirectories(dir);
+        committer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                commit();
+            }
+        }, "GameJournal");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /** Return the number of fills of a game between two snapshots. */
+    public int getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    /** Return the number of batches written and synced so far. */
+    public long getCommitCount() {
+        return commitCount;
+    }
+
+    /**
+     * Log the fill of the square at column x and row y of the board of the
+     * given room with the given number, the change with the given sequence number.
+     */
+    public void fill(int room, long sequence, int x, int y, int v) {
+        if (closed) {
+            return;
+        }
+        tasks.add(new Task(Task.FILL, room, sequence, x, y, v, null, null));
+    }
+
+    /**
+     * Save a snapshot of the given board of the given room, whose last change
+     * has the given sequence number, and compact the log of the room. The
+     * board is copied, so it may change as soon as this method returns.
+     */
+    public void snapshot(int room, Board board, long sequence) {
+        if (closed) {
+            return;
+        }
+        tasks.add(new Task(Task.SNAPSHOT, room, sequence, 0, 0, 0, new Board(board), null));
+    }
+
+    /**
+     * Save the resume tokens of the seats of the given room, taken or held,
+     * replacing those saved before. The array is copied.
+     */
+    public void seats(int room, int[] tokens) {
+        if (closed) {
+            return;
+        }
+        tasks.add(new Task(Task.SEATS, room, 0, 0, 0, 0, null, tokens.clone(), null));
+    }
+
+    /** Delete the files of the given room, a game that is over. */
+    public void remove(int room) {
+        if (closed) {
+            return;
+        }
+        tasks.add(new Task(Task.REMOVE, room, 0, 0, 0, 0, null, null));
+    }
+
+    /**
+     * Wait until all records and snapshots given so far are on disk.
+     *
+     * @throws IOException If the journal failed to write them.
+     */
+    public void sync() throws IOException {
+        CountDownLatch done = new CountDownLatch(1);
+        tasks.add(new Task(Task.SYNC, 0, 0, 0, 0, 0, null, done));
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Write everything given so far and stop the background thread. What is
+     * given after is ignored, so the games of players disconnected by a
+     * server shutting down are kept for the next start.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (!committer.isAlive()) {
+            return;
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        tasks.add(new Task(Task.CLOSE, 0, 0, 0, 0, 0, null, done));
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Return the games of the journal, each restored from its snapshot and
+     * the newer records of its log. A torn record at the end of a log, left
+     * by a crash, is cut off. To be called before anything is written.
+     */
+    public List<Game> restore() throws IOException {
+        List<Game> games = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "room-*" + SNAPSHOT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                int room;
+                try {
+                    room = Integer.parseInt(name.substring(5, name.length() - SNAPSHOT_SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                Game game = restore(room, file);
+                if (game != null) {
+                    games.add(game);
+                }
+            }
+        }
+        return games;
+    }
+
+    /** Return the game of the given room restored from the given snapshot, or null if it is damaged. */
+    private Game restore(int room, Path snapshot) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(snapshot));
+        if (in.remaining() < 21 || in.getInt() != SNAPSHOT_MAGIC) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(in.array(), 0, in.limit() - 4);
+        if ((int) crc.getValue() != in.getInt(in.limit() - 4)) {
+            return null;
+        }
+        int size = in.getInt();
+        long sequence = in.getLong();
+        boolean hasSolution = in.get() != 0;
+        if (size <= 0 || in.remaining() != size * size * (hasSolution ? 2 : 1) + 4) {
+            return null;
+        }
+        int[][] values = new int[size][size];
+        boolean[][] given = new boolean[size][size];
+        for (int i = 0; i < size * size; i++) {
+            int cell = in.get() & 0xFF;
+            values[i / size][i % size] = cell & ~GIVEN;
+            given[i / size][i % size] = (cell & GIVEN) != 0;
+        }
+        int[][] solution = null;
+        if (hasSolution) {
+            solution = new int[size][size];
+            for (int i = 0; i < size * size; i++) {
+                solution[i / size][i % size] = in.get();
+            }
+        }
+        Board board = new Board(values, solution);
+        for (int i = 0; i < size * size; i++) {
+            if (!given[i / size][i % size]) {
+                board.setGiven(i / size, i % size, false);
+            }
+        }
+
+        // replay the records of the log newer than the snapshot
+        Path log = dir.resolve("room-" + room + LOG_SUFFIX);
+        if (Files.exists(log)) {
+            try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer records = ByteBuffer.allocate((int) channel.size());
+                while (records.hasRemaining() && channel.read(records) >= 0) {
+                }
+                records.flip();
+                while (records.remaining() >= RECORD_SIZE) {
+                    int start = records.position();
+                    long seq = records.getLong();
+                    int x = records.get() & 0xFF;
+                    int y = records.get() & 0xFF;
+                    int v = records.get() & 0xFF;
+                    if (records.get() != check(records, start)) {
+                        records.position(start);
+                        break;
+                    }
+                    if (seq > sequence && x < size && y < size && v <= size) {
+                        board.setValue(y, x, v);
+                        sequence = seq;
+                    }
+                }
+                if (records.hasRemaining()) {
+                    channel.truncate(records.position());
+                }
+            }
+        }
+        return new Game(room, board, sequence, restoreSeats(room));
+    }
+
+    /** Return the resume tokens saved for the seats of the given room, or none if they are missing or damaged. */
+    private int[] restoreSeats(int room) throws IOException {
+        Path file = dir.resolve("room-" + room + SEATS_SUFFIX);
+        if (!Files.exists(file)) {
+            return new int[0];
+        }
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (in.remaining() < 12 || in.getInt() != SEATS_MAGIC) {
+            return new int[0];
+        }
+        CRC32 crc = new CRC32();
+        crc.update(in.array(), 0, in.limit() - 4);
+        int count = in.getInt();
+        if ((int) crc.getValue() != in.getInt(in.limit() - 4) || count < 0 || in.remaining() != 4 * count + 4) {
+            return new int[0];
+        }
+        int[] tokens = new int[count];
+        for (int i = 0; i < count; i++) {
+            tokens[i] = in.getInt();
+        }
+        return tokens;
+    }
+
+    /** Write the tasks given until closed, a batch at a time. */
+    private void commit() {
+        List<Task> batch = new ArrayList<>();
+        Map<Integer, ByteBuffer> pending = new LinkedHashMap<>();
+        List<CountDownLatch> waiting = new ArrayList<>();
+        boolean closing = false;
+        while (!closing) {
+            try {
+                batch.add(tasks.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            tasks.drainTo(batch);
+            for (Task task : batch) {
+                try {
+                    switch (task.kind) {
+                    case Task.FILL:
+                        ByteBuffer records = pending.get(task.room);
+                        if (records == null || !records.hasRemaining()) {
+                            records = grow(records);
+                            pending.put(task.room, records);
+                        }
+                        int start = records.position();
+                        records.putLong(task.sequence);
+                        records.put((byte) task.x).put((byte) task.y).put((byte) task.v);
+                        records.put(check(records, start));
+                        break;
+                    case Task.SNAPSHOT:
+                        // the records pending are older, so in the snapshot
+                        pending.remove(task.room);
+                        writeSnapshot(task.room, task.board, task.sequence);
+                        log(task.room).truncate(0);
+                        break;
+                    case Task.REMOVE:
+                        pending.remove(task.room);
+                        FileChannel log = logs.remove(task.room);
+                        if (log != null) {
+                            log.close();
+                        }
+                        Files.deleteIfExists(dir.resolve("room-" + task.room + SNAPSHOT_SUFFIX));
+                        Files.deleteIfExists(dir.resolve("room-" + task.room + LOG_SUFFIX));
+                        Files.deleteIfExists(dir.resolve("room-" + task.room + SEATS_SUFFIX));
+                        break;
+                    case Task.SEATS:
+                        writeSeats(task.room, task.tokens);
+                        break;
+                    case Task.CLOSE:
+                        closing = true;
+                        waiting.add(task.done);
+                        break;
+                    default:
+                        waiting.add(task.done);
+                        break;
+                    }
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+            for (Map.Entry<Integer, ByteBuffer> entry : pending.entrySet()) {
+                try {
+                    FileChannel log = log(entry.getKey());
+                    ByteBuffer records = entry.getValue();
+                    records.flip();
+                    while (records.hasRemaining()) {
+                        log.write(records);
+                    }
+                    log.force(false);
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+            commitCount++;
+            pending.clear();
+            batch.clear();
+            for (CountDownLatch done : waiting) {
+                done.countDown();
+            }
+            waiting.clear();
+        }
+        for (FileChannel log : logs.values()) {
+            try {
+                log.close();
+            } catch (IOException e) {
+            }
+        }
+        logs.clear();
+    }
+
+    /** Return a buffer for records with the records of the given one, if any, and room for more. */
+    private static ByteBuffer grow(ByteBuffer records) {
+        if (records == null) {
+            return ByteBuffer.allocate(16 * RECORD_SIZE);
+        }
+        records.flip();
+        return ByteBuffer.allocate(2 * records.capacity()).put(records);
+    }
+
+    /** Return the check byte of the record that starts at the given position. */
+    private static byte check(ByteBuffer records, int start) {
+        int check = 0x5A; // so that a record of zeros is torn
+        for (int i = start; i < start + RECORD_SIZE - 1; i++) {
+            check ^= records.get(i);
+        }
+        return (byte) check;
+    }
+
+    /** Return the log of the given room, opening it for appending if needed. */
+    private FileChannel log(int room) throws IOException {
+        FileChannel log = logs.get(room);
+        if (log == null) {
+            log = FileChannel.open(dir.resolve("room-" + room + LOG_SUFFIX),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            logs.put(room, log);
+        }
+        return log;
+    }
+
+    /** Write the snapshot of the given room to a new file, sync it and put it in place of the old one. */
+    private void writeSnapshot(int room, Board board, long sequence) throws IOException {
+        int size = board.size;
+        boolean hasSolution = board.isSolutionKnown();
+        ByteBuffer out = ByteBuffer.allocate(17 + size * size * (hasSolution ? 2 : 1) + 4);
+        out.putInt(SNAPSHOT_MAGIC).putInt(size).putLong(sequence).put((byte) (hasSolution ? 1 : 0));
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                out.put((byte) (board.getValue(y, x) | (board.isGiven(y, x) ? GIVEN : 0)));
+            }
+        }
+        if (hasSolution) {
+            for (int[] row : board.getSolution()) {
+                for (int v : row) {
+                    out.put((byte) v);
+                }
+            }
+        }
+        replace(dir.resolve("room-" + room + SNAPSHOT_SUFFIX), out);
+    }
+
+    /** Write the resume tokens of the seats of the given room in place of those written before. */
+    private void writeSeats(int room, int[] tokens) throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(8 + 4 * tokens.length + 4);
+        out.putInt(SEATS_MAGIC).putInt(tokens.length);
+        for (int token : tokens) {
+            out.putInt(token);
+        }
+        replace(dir.resolve("room-" + room + SEATS_SUFFIX), out);
+    }
+
+    /**
+     * Append the CRC of the bytes written to the given buffer, write them to
+     * a new file, sync it and put it in place of the given file.
+     */
+    private void replace(Path file, ByteBuffer out) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), 0, out.position());
+        out.putInt((int) crc.getValue());
+        out.flip();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Remember the first error writing the journal. */
+    private void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package sudoku.dialog;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import javax.swing.SwingUtilities;
+
+import sudoku.model.Board;
+
+/**
+ * Owns the board of a game and makes all changes to it, those of the
+ * player and those of the peer, on a thread of its own, one at a time in
+ * the order they are submitted. No other thread touches the board.
+ *
+ * <p>
+ * After each batch of changes the loop publishes a copy of the board, a
+ * snapshot that is never changed afterwards, and hands the latest snapshot
+ * to a view on the event dispatch thread. At most one hand-off is pending
+ * at a time, so a burst of changes from the peer ends in one update of the
+ * view instead of a repaint per change.
+ * </p>
+ *
+ * <pre>
+ *  GameLoop game = new GameLoop(board, snapshot -> panel.setBoard(snapshot));
+ *  game.apply(b -> b.setValue(1, 2, 3));
+ *  ...
+ *  game.stop();
+ * </pre>
+ */
+public class GameLoop implements Executor {
+
+    /** Most tasks run before a snapshot is published, so a steady stream still shows. */
+    private static final int MAX_BATCH = 256;
+
+    /** Tasks to run on the loop thread, in order. */
+    private final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+
+    /** Shows the snapshots, on the event dispatch thread. */
+    private final Consumer<Board> view;
+
+    /** True while a snapshot is waiting to be shown. */
+    private final AtomicBoolean updatePending = new AtomicBoolean();
+
+    private final Thread thread;
+
+    /** Board of the game; used only on the loop thread. */
+    private Board board;
+
+    /** Latest snapshot of the board. */
+    private volatile Board snapshot;
+
+    private volatile boolean stopped;
+
+    /** Create a loop that owns the given board and start it. */
+    public GameLoop(Board board, Consumer<Board> view) {
+        this.board = board;
+        this.view = view;
+        snapshot = new Board(board);
+        thread = new Thread(this::run, "Game loop");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Return the latest snapshot of the board, which must not be changed. */
+    public Board getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Run the given task on the loop thread, after those submitted before.
+     * The task may change the board, e.g., through a {@link GameSession}
+     * sharing it; a snapshot is published after it.
+     */
+    @Override
+    public void execute(Runnable task) {
+        if (!stopped) {
+            tasks.add(task);
+        }
+    }
+
+    /** Make the given change to the board on the loop thread. */
+    public void apply(Consumer<Board> move) {
+        execute(() -> move.accept(board));
+    }
+
+    /** Replace the board with the given one, which belongs to the loop from then on. */
+    public void replace(Board board) {
+        execute(() -> this.board = board);
+    }
+
+    /** Stop the loop, dropping the tasks not run yet. */
+    public void stop() {
+        stopped = true;
+        thread.interrupt();
+    }
+
+    /** Run the tasks in batches, publishing a snapshot after each batch. */
+    private void run() {
+        try {
+            while (!stopped) {
+                Runnable task = tasks.take();
+                int n = 0;
+                do {
+                    runTask(task);
+                } while (++n < MAX_BATCH && (task = tasks.poll()) != null);
+                publish();
+            }
+        } catch (InterruptedException e) {
+        }
+    }
+
+    /** Run the given task; a failed task doesn't stop the game. */
+    private static void runTask(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Publish a snapshot of the board and have the view show it, unless it will already. */
+    private void publish() {
+        snapshot = new Board(board);
+        if (updatePending.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(() -> {
+                updatePending.set(false);
+                view.accept(snapshot);
+            });
+        }
+    }
+}
@@ -0,0 +1,603 @@
+package sudoku.dialog;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import sudoku.dialog.GameHub.Room;
+import sudoku.dialog.NetworkAdapter.MessageListener;
+import sudoku.dialog.NetworkAdapter.MessageType;
+
+/**
+ * A server that hosts many shared games at once. Players connect with a
+ * {@link NetworkAdapter} and speak the protocol documented there. The
+ * games are the rooms of a {@link GameHub}: a player can list the rooms,
+ * create one or join one, and gets the room's board in a join_ack message.
+ * A player who sends a join message without a room id is put in a room with
+ * space left, or a new room with a new puzzle if there is none. From then on,
+ * the fill and new messages of a player are applied to the room's board,
+ * acknowledged and forwarded to the other players of the room, and a quit
+ * message ends the connection. A player whose connection is lost can
+ * reconnect and resume its game with a resume message. Players may send text or binary messages,
+ * and get binary messages once they ask for them; see {@link MessageCodec}.
+ *
+ * <p>
+ * The server uses non-blocking socket channels. One thread accepts
+ * connections and hands them out in turn to a few worker threads, each
+ * of which reads and writes all of its connections with a single
+ * selector, so thousands of connections need only a handful of threads.
+ * A message forwarded to the players of a room is encoded once and its bytes
+ * shared by their connections, and a connection writes the messages queued
+ * for it with a single gathering write. A connection whose player doesn't
+ * read its messages is closed once too many bytes wait to be written to it,
+ * as its room would otherwise keep queueing messages for it without end.
+ * </p>
+ *
+ * <pre>
+ *  GameServer server = new GameServer(8000);
+ *  server.start();
+ *  ...
+ *  server.stop();
+ * </pre>
+ *
+ * @see NetworkAdapter
+ */
+public class GameServer {
+
+    /** Number of players of a room, by default. */
+    private static final int DEFAULT_ROOM_CAPACITY = 2;
+
+    /** Initial size of the read buffer of a connection in bytes. */
+    private static final int BUFFER_SIZE = 4096;
+
+    /** Longest message accepted in bytes; a connection sending a longer one is closed. */
+    private static final int MAX_MESSAGE_SIZE = 1 << 16;
+
+    /** Most messages written by one gathering write. */
+    private static final int MAX_GATHER = 64;
+
+    /** Most bytes waiting to be written to a connection; a connection with more is closed. */
+    private static final long MAX_QUEUED_BYTES = 1 << 20;
+
+    /** Most messages of a player held while its room is made; a connection sending more is closed. */
+    private static final int MAX_HELD_MESSAGES = 1024;
+
+    /** Channel to accept connections. */
+    private final ServerSocketChannel serverChannel;
+
+    /** Threads that read and write the connections. */
+    private final Worker[] workers;
+
+    /** Rooms of the games hosted by this server. */
+    private final GameHub hub;
+
+    private final AtomicInteger numConnections = new AtomicInteger();
+
+    /** Thread that accepts connections. */
+    private Thread acceptor;
+
+    private volatile boolean running;
+
+    /**
+     * Create a server that accepts connections on the given port, with one
+     * worker thread per processor and two players per room.
+     */
+    public GameServer(int port) throws IOException {
+        this(port, Runtime.getRuntime().availableProcessors(), DEFAULT_ROOM_CAPACITY);
+    }
+
+    /**
+     * Create a server that accepts connections on the given port.
+     *
+     * @param port Port to listen to, or 0 for any free port.
+     * @param numWorkers Number of threads to read and write the connections.
+     * @param roomCapacity Maximum number of players of a room.
+     */
+    public GameServer(int port, int numWorkers, int roomCapacity) throws IOException {
+        this(port, numWorkers, new GameHub(roomCapacity));
+    }
+
+    /**
+     * Create a server that accepts connections on the given port and hosts
+     * the games of the given hub.
+     *
+     * @param port Port to listen to, or 0 for any free port.
+     * @param numWorkers Number of threads to read and write the connections.
+     * @param hub Rooms of the games to host.
+     */
+    public GameServer(int port, int numWorkers, GameHub hub) throws IOException {
+        this.hub = hub;
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        workers = new Worker[Math.max(1, numWorkers)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i);
+        }
+    }
+
+    /** Return the port this server accepts connections on. */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /** Return the number of open connections. */
+    public int getConnectionCount() {
+        return numConnections.get();
+    }
+
+    /** Return the number of rooms with players. */
+    public int getRoomCount() {
+        return hub.getRoomCount();
+    }
+
+    /** Start accepting connections on background threads. */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (Worker worker : workers) {
+            worker.start();
+        }
+        acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "GameServer-acceptor");
+        acceptor.start();
+    }
+
+    /** Stop accepting connections and close all connections. */
+    public synchronized void stop() {
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+        }
+        try {
+            hub.close(); // before the players leave
+        } catch (IOException e) {
+        }
+        for (Worker worker : workers) {
+            worker.selector.wakeup();
+        }
+    }
+
+    /** Accept connections and hand them to the workers in turn. */
+    private void accept() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                workers[next].add(channel);
+                next = (next + 1) % workers.length;
+            } catch (IOException e) {
+                // closed by stop() or the connection failed
+            }
+        }
+    }
+
+    /** A thread that reads and writes its connections with a selector. */
+    private class Worker extends Thread {
+
+        private final Selector selector;
+
+        /** Connections accepted but not registered with the selector yet. */
+        private final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+
+        /** Connections with messages to write. */
+        private final Queue<Connection> flushes = new ConcurrentLinkedQueue<>();
+
+        /** Tasks to be run on this thread, e.g., taking a room made elsewhere. */
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        /** Messages of the connection being written, for a gathering write. */
+        private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+
+        Worker(int id) throws IOException {
+            super("GameServer-worker-" + id);
+            selector = Selector.open();
+        }
+
+        /** Take the given connection over. */
+        void add(SocketChannel channel) {
+            accepted.add(channel);
+            selector.wakeup();
+        }
+
+        /** Write the messages of the given connection on this thread. */
+        void flushLater(Connection connection) {
+            flushes.add(connection);
+            selector.wakeup();
+        }
+
+        /** Run the given task of the given connection on this thread, closing the connection if it fails. */
+        void runLater(Connection connection, Runnable task) {
+            tasks.add(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    connection.close();
+                }
+            });
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    register();
+                    runTasks();
+                    flush();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flush();
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            connection.close(); // only this player, e.g., for a malformed message
+                        }
+                    }
+                }
+            } catch (IOException e) {
+            } finally {
+                for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                    ((Connection) key.attachment()).close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+
+        /** Register the connections accepted since the last time. */
+        private void register() {
+            SocketChannel channel;
+            while ((channel = accepted.poll()) != null) {
+                Connection connection = new Connection(channel, this);
+                try {
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    numConnections.incrementAndGet();
+                } catch (IOException e) {
+                    try {
+                        channel.close();
+                    } catch (IOException ex) {
+                    }
+                }
+            }
+        }
+
+        /** Run the tasks submitted since the last time. */
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+        /** Write the messages of the connections that have some. */
+        private void flush() {
+            Connection connection;
+            while ((connection = flushes.poll()) != null) {
+                try {
+                    connection.flush();
+                } catch (IOException | RuntimeException e) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * A connection to a player. It is read, written and closed only by its
+     * worker, but messages can be sent to it from any thread.
+     */
+    private class Connection implements MessageListener, GameHub.Player {
+
+        private final SocketChannel channel;
+
+        private final Worker worker;
+
+        private SelectionKey key;
+
+        /** Bytes read but not parsed yet. */
+        private ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+
+        /** Encoded messages to be written, in order. */
+        private final Queue<ByteBuffer> out = new ConcurrentLinkedQueue<>();
+
+        /** True if this connection is waiting for its worker to write it. */
+        private final AtomicBoolean flushing = new AtomicBoolean();
+
+        /** Number of bytes queued but not written yet. */
+        private final AtomicLong queuedBytes = new AtomicLong();
+
+        /** True if too many bytes were queued; the worker then closes this connection. */
+        private volatile boolean overflowed;
+
+        /** Room of this player, or null if it has not joined a game. */
+        private Room room;
+
+        /** Room being made for this player while its puzzle is generated, or null. */
+        private CompletableFuture<Room> pendingRoom;
+
+        /** Messages received while the room is made, to be handled, in order, once it is entered. */
+        private final Queue<Runnable> held = new ArrayDeque<>();
+
+        /** Encodes the messages sent; text until the player asks for binary. */
+        private volatile MessageCodec codec = MessageCodec.TEXT;
+
+        private volatile boolean closed;
+
+        Connection(SocketChannel channel, Worker worker) {
+            this.channel = channel;
+            this.worker = worker;
+        }
+
+        @Override
+        public void send(MessageType type, int x, int y, int z, int[] others) {
+            if (!closed) {
+                queue(codec.encode(type, x, y, z, others));
+            }
+        }
+
+        /** Send the shared bytes of the given message, encoded with the codec of this connection. */
+        @Override
+        public void send(EncodedMessage message) {
+            if (!closed) {
+                queue(message.encode(codec));
+            }
+        }
+
+        /**
+         * Queue the given bytes to be written by the worker, or have the worker
+         * close this connection if too many bytes are waiting already.
+         */
+        private void queue(ByteBuffer bytes) {
+            if (overflowed) {
+                return;
+            }
+            if (queuedBytes.addAndGet(bytes.remaining()) > MAX_QUEUED_BYTES) {
+                overflowed = true; // the player doesn't read; drop it
+            } else {
+                out.add(bytes);
+            }
+            if (flushing.compareAndSet(false, true)) {
+                worker.flushLater(this);
+            }
+        }
+
+        /** Read the available bytes and handle each complete message. */
+        void read() throws IOException {
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            in.flip();
+            while (in.hasRemaining() && MessageCodec.of(in).decode(in, this)) {
+                if (closed) {
+                    return;
+                }
+            }
+            in.compact();
+            if (!in.hasRemaining()) {
+                // no whole message in a full buffer
+                if (in.capacity() >= MAX_MESSAGE_SIZE) {
+                    close();
+                    return;
+                }
+                in.flip();
+                in = ByteBuffer.allocate(in.capacity() * 2).put(in);
+            }
+        }
+
+        /**
+         * Write as many of the messages to be written as the socket takes, up
+         * to MAX_GATHER of them at a time with a gathering write; called by
+         * the worker only.
+         */
+        void flush() throws IOException {
+            flushing.set(false);
+            if (closed) {
+                return;
+            }
+            if (overflowed) {
+                close();
+                return;
+            }
+            ByteBuffer[] gather = worker.gather;
+            while (!out.isEmpty()) {
+                int n = 0;
+                for (ByteBuffer buffer : out) {
+                    gather[n++] = buffer;
+                    if (n == gather.length) {
+                        break;
+                    }
+                }
+                queuedBytes.addAndGet(-channel.write(gather, 0, n));
+                int written = 0;
+                while (written < n && !gather[written].hasRemaining()) {
+                    out.poll();
+                    written++;
+                }
+                Arrays.fill(gather, 0, n, null);
+                if (written < n) {
+                    // the socket is full; continue when it is writable
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        /** Close the connection, keeping the room for the player to resume it. */
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            numConnections.decrementAndGet();
+            if (room != null) {
+                hub.drop(room, this);
+                room = null;
+            }
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+            }
+        }
+
+        /** Leave the room of this player, if any. */
+        private void leaveRoom() {
+            if (room != null) {
+                hub.leave(room, this);
+                room = null;
+            }
+        }
+
+        /**
+         * Enter the room of the given join or create, or send the given ack
+         * declining it if there is none or its puzzle could not be made. If
+         * the room is still being made, it is entered on this worker once
+         * made, so this thread never waits for a puzzle to be generated, and
+         * the messages received meanwhile are held until then, so that none
+         * is handled without the room the player was sent.
+         */
+        private void enter(CompletableFuture<Room> request, MessageType declined) {
+            CompletableFuture<Room> made = request.exceptionally(e -> null);
+            if (made.isDone()) {
+                entered(made.join(), declined);
+                return;
+            }
+            pendingRoom = request;
+            made.thenAccept(r -> worker.runLater(this, () -> {
+                pendingRoom = null;
+                if (closed) {
+                    if (r != null) {
+                        hub.drop(r, this); // the connection was lost meanwhile
+                    }
+                    return;
+                }
+                entered(r, declined);
+                Runnable message;
+                while (pendingRoom == null && (message = held.poll()) != null) {
+                    message.run();
+                }
+            }));
+        }
+
+        /** Take the given room, or send the given ack declining it if it is null. */
+        private void entered(Room r, MessageType declined) {
+            room = r;
+            if (r == null) {
+                send(declined, 0, 0, 0, null);
+            }
+        }
+
+        @Override
+        public void messageReceived(MessageType type, int x, int y, int z, int[] others) {
+            if (pendingRoom != null) {
+                if (held.size() >= MAX_HELD_MESSAGES) {
+                    close();
+                } else {
+                    held.add(() -> messageReceived(type, x, y, z, others));
+                }
+                return;
+            }
+            switch (type) {
+            case JOIN:
+                useCodec(y);
+                leaveRoom();
+                enter(hub.join(this, x), MessageType.JOIN_ACK);
+                break;
+            case CREATE:
+                useCodec(y);
+                leaveRoom();
+                enter(hub.create(this, x), MessageType.CREATE_ACK);
+                break;
+            case LIST:
+                send(MessageType.LIST_ACK, 0, 0, 0, hub.list());
+                break;
+            case RESUME:
+                leaveRoom();
+                room = hub.resume(this, x, y, z);
+                if (room == null) {
+                    send(MessageType.RESUME_ACK, 0, 0, 0, null);
+                }
+                break;
+            case NEW:
+                if (room == null || !hub.newGame(room, this, x, others)) {
+                    send(MessageType.NEW_ACK, 0, 0, 0, null);
+                }
+                break;
+            case FILL:
+                if (room != null) {
+                    // fill: x,y,v [,p]; p is the number the player saw in the square
+                    hub.fill(room, this, x, y, others.length > 0 ? others[0] : -1, z);
+                }
+                break;
+            case QUIT:
+                leaveRoom();
+                close();
+                break;
+            default:
+                // acks and unknown messages need no answer
+                break;
+            }
+        }
+
+        /** Switch to binary messages if the codec argument of a join or create message is 1. */
+        private void useCodec(int c) {
+            if (c == 1) {
+                codec = MessageCodec.BINARY;
+            }
+        }
+    }
+
+    /**
+     * Start a server on the port given as the first argument, 8000 by default.
+     * If a directory is given as the second argument, the games are kept in a
+     * journal there and restored from it.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8000;
+        GameServer server;
+        if (args.length > 1) {
+            GameHub hub = new GameHub(DEFAULT_ROOM_CAPACITY, new GameJournal(Paths.get(args[1])));
+            server = new GameServer(port, Runtime.getRuntime().availableProcessors(), hub);
+        } else {
+            server = new GameServer(port);
+        }
+        server.start();
+        System.out.println("Sudoku game server listening on port " + server.getPort());
+    }
+}
@@ -0,0 +1,342 @@
+package sudoku.dialog;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Executor;
+
+import sudoku.dialog.NetworkAdapter.MessageType;
+import sudoku.model.Board;
+
+/**
+ * A game shared by two players over a {@link NetworkAdapter}, speaking the
+ * protocol documented there. One player hosts the game and waits for the
+ * other to connect; the other joins it and gets the host's board in a
+ * join_ack message. From then on both play the same board: each change is
+ * sent as a fill message and acknowledged, and either player may start a
+ * new game by sending a new board or leave by quitting.
+ *
+ * <p>
+ * The same class plays both roles. All messages from the peer are handled
+ * by a single dispatch method on the reader thread of the adapter, and the
+ * user interface learns about them through a {@link Listener}. Messages are
+ * written asynchronously, so sending a change never waits for the peer.
+ * </p>
+ *
+ * <p>
+ * The work on the board, such as applying the peer's changes, is handed to
+ * an executor, e.g., a {@link GameLoop} that owns the board; the methods
+ * that read or change the board are then to be called on it as well.
+ * </p>
+ *
+ * <pre>
+ *  GameSession session = GameSession.host(8000, board, listener);
+ *  // or GameSession session = GameSession.join("localhost", 8000, listener);
+ *  board.setValue(1, 2, 3);
+ *  session.sendChanges();
+ *  ...
+ *  session.close();
+ * </pre>
+ *
+ * @see NetworkAdapter
+ */
+public class GameSession {
+
+    /** Told about the changes made by the peer. */
+    public interface Listener {
+
+        /**
+         * The board of the session was replaced by that of the peer, as a game
+         * was joined or a new game accepted; called by the executor.
+         */
+        void boardReplaced(Board board);
+
+        /** The peer changed a square of the board; called by the executor. */
+        void boardChanged();
+
+        /**
+         * The peer asks to play a new game of the given size; return true to
+         * accept it. Called on the reader thread, which waits for the answer.
+         */
+        boolean newGameRequested(int size);
+
+        /** The session ended for the given reason, which can be shown to the user; called on any thread. */
+        void disconnected(String reason);
+    }
+
+    /** Connection to the peer. */
+    private final NetworkAdapter network;
+
+    private final Listener listener;
+
+    /** Runs the work on the board. */
+    private final Executor executor;
+
+    /** Board shared with the peer, or null until a joined game's board arrives. */
+    private Board board;
+
+    /** Values of the squares as the peer knows them, in row-major order. */
+    private int[] peerValues;
+
+    /** Version of the board up to which its changes have been sent to the peer. */
+    private long sentVersion;
+
+    private volatile boolean closed;
+
+    private GameSession(Socket socket, Board board, Listener listener, Executor executor) {
+        this.listener = listener;
+        this.executor = executor;
+        if (board != null) {
+            executor.execute(() -> setBoard(board)); // before any join request
+        }
+        network = new NetworkAdapter(socket);
+        network.setMessageListener(this::messageReceived);
+        network.receiveMessagesAsync();
+    }
+
+    /**
+     * Wait for a player to connect to the given port and return a session
+     * sharing the given board with it, once it joins. The peer's changes
+     * are applied on the thread that receives them.
+     *
+     * @throws IOException If the port cannot be listened to, e.g., a
+     *  {@link java.net.BindException} if it is already in use.
+     */
+    public static GameSession host(int port, Board board, Listener listener) throws IOException {
+        return host(port, board, listener, Runnable::run);
+    }
+
+    /**
+     * Wait for a player to connect to the given port and return a session
+     * sharing the given board with it, once it joins. The work on the board
+     * is run by the given executor.
+     *
+     * @throws IOException If the port cannot be listened to.
+     */
+    public static GameSession host(int port, Board board, Listener listener, Executor executor) throws IOException {
+        return host(new ServerSocket(port), board, listener, executor);
+    }
+
+    /**
+     * Wait for a player to connect to the given server socket, which is
+     * then closed, and return a session sharing the given board with it.
+     * The work on the board is run by the given executor. Closing the
+     * server socket from another thread stops the wait.
+     *
+     * @throws IOException If no player could connect, e.g., a
+     *  {@link java.net.SocketException} if the server socket was closed.
+     */
+    public static GameSession host(ServerSocket server, Board board, Listener listener, Executor executor)
+            throws IOException {
+        try (ServerSocket s = server) {
+            return new GameSession(s.accept(), board, listener, executor);
+        }
+    }
+
+    /**
+     * Connect to the player hosting a game at the given host and port and ask
+     * to join it. The board arrives later, through {@link Listener#boardReplaced(Board)}.
+     * The peer's changes are applied on the thread that receives them.
+     *
+     * @throws IOException If the host cannot be reached, e.g., a
+     *  {@link java.net.ConnectException} if nobody is hosting a game there.
+     */
+    public static GameSession join(String host, int port, Listener listener) throws IOException {
+        return join(host, port, listener, Runnable::run);
+    }
+
+    /**
+     * Connect to the player hosting a game at the given host and port and ask
+     * to join it. The work on the board is run by the given executor.
+     *
+     * @throws IOException If the host cannot be reached.
+     */
+    public static GameSession join(String host, int port, Listener listener, Executor executor) throws IOException {
+        GameSession session = new GameSession(new Socket(host, port), null, listener, executor);
+        session.network.writeJoin();
+        return session;
+    }
+
+    /** Return the board shared with the peer, or null if it hasn't arrived yet. */
+    public synchronized Board getBoard() {
+        return board;
+    }
+
+    /** Return true if the session has ended. */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /** Share the given board with the peer, as the board it already has. */
+    private synchronized void setBoard(Board board) {
+        this.board = board;
+        peerValues = new int[board.size * board.size];
+        for (int x = 0; x < board.size; x++) {
+            for (int y = 0; y < board.size; y++) {
+                peerValues[x * board.size + y] = board.getValue(x, y);
+            }
+        }
+        sentVersion = board.getVersion();
+    }
+
+    /** Ask the peer to play a new game with the given board. */
+    public synchronized void newGame(Board board) {
+        setBoard(board);
+        network.writeNew(board.size, GameHub.squares(board));
+    }
+
+    /**
+     * Send the squares of the board changed since they were last sent, each
+     * as a fill message. If the changes are not all known anymore, e.g., the
+     * board was solved, the squares that differ from the peer's are sent.
+     */
+    public synchronized void sendChanges() {
+        if (board == null || closed) {
+            return;
+        }
+        int[] changes = board.changesSince(sentVersion);
+        if (changes != null) {
+            for (int i = 0; i < changes.length; i += 3) {
+                sendValue(changes[i], changes[i + 1], changes[i + 2]);
+            }
+        } else {
+            for (int x = 0; x < board.size; x++) {
+                for (int y = 0; y < board.size; y++) {
+                    sendValue(x, y, board.getValue(x, y));
+                }
+            }
+        }
+        sentVersion = board.getVersion();
+    }
+
+    /** Send the value of the square at row x, column y if the peer doesn't have it. */
+    private void sendValue(int x, int y, int v) {
+        int i = x * board.size + y;
+        if (peerValues[i] != v) {
+            peerValues[i] = v;
+            network.writeFill(y, x, v); // column, row
+        }
+    }
+
+    /** Leave the game; the connection ends once the peer has the quit message. */
+    public void close() {
+        if (!closed) {
+            closed = true;
+            network.writeQuit();
+        }
+    }
+
+    /** Handle the given message from the peer. */
+    private void messageReceived(MessageType type, int x, int y, int z, int[] others) {
+        switch (type) {
+        case JOIN:
+            // join: [r [,c]]; there is only the one game to join
+            executor.execute(this::acceptJoin);
+            break;
+        case JOIN_ACK:
+            // join_ack: n [,s,b]
+            if (x == 1 && replaceBoard(y, others)) {
+                break;
+            }
+            disconnect("The other player declined to share the game");
+            break;
+        case NEW:
+            // new: s,b
+            if (listener.newGameRequested(x) && replaceBoard(x, others)) {
+                network.writeNewAck(true);
+            } else {
+                network.writeNewAck(false);
+                leave("New game declined; disconnected"); // the peer ends the connection
+            }
+            break;
+        case NEW_ACK:
+            if (x == 0) {
+                disconnect("The other player declined the new game and left");
+            }
+            break;
+        case FILL:
+            // fill: x,y,v; x is the column and y the row
+            executor.execute(() -> {
+                if (fill(y, x, z)) {
+                    network.writeFillAck(x, y, z);
+                    listener.boardChanged();
+                }
+            });
+            break;
+        case QUIT:
+            disconnect("The other player left the game");
+            break;
+        case CLOSE:
+            disconnect("Connection closed");
+            break;
+        default:
+            // fill_ack and the messages of a server hosting many games need no answer
+            break;
+        }
+    }
+
+    /** Answer a join request with the board. */
+    private synchronized void acceptJoin() {
+        if (board != null) {
+            network.writeJoinAck(board.size, GameHub.squares(board));
+        } else {
+            network.writeJoinAck();
+        }
+    }
+
+    /**
+     * Have the board replaced with one of the given size and squares, and
+     * return true if they are valid.
+     */
+    private boolean replaceBoard(int size, int[] squares) {
+        Board board = GameHub.toBoard(size, squares);
+        if (board == null) {
+            return false;
+        }
+        executor.execute(() -> {
+            setBoard(board);
+            listener.boardReplaced(board);
+        });
+        return true;
+    }
+
+    /**
+     * Set the square at row x, column y to the given value, as the peer did,
+     * and return true if it is a square of the board that can be changed.
+     */
+    private synchronized boolean fill(int x, int y, int v) {
+        if (board == null || x < 0 || x >= board.size || y < 0 || y >= board.size
+                || v < 0 || v > board.size || board.isGiven(x, y)) {
+            return false;
+        }
+        boolean upToDate = sentVersion == board.getVersion();
+        int old = board.getValue(x, y);
+        if (old != v) {
+            board.setValue(x, y, v);
+            if (old == 0) {
+                board.playerMove();
+            } else if (v == 0) {
+                board.undoMove();
+            }
+        }
+        peerValues[x * board.size + y] = v;
+        if (upToDate) {
+            sentVersion = board.getVersion(); // no need to send the peer its own change
+        }
+        return true;
+    }
+
+    /** End the session, telling the listener why unless it was closed on purpose. */
+    private void leave(String reason) {
+        if (!closed) {
+            closed = true;
+            listener.disconnected(reason);
+        }
+    }
+
+    /** End the session and its connection. */
+    private void disconnect(String reason) {
+        leave(reason);
+        network.close();
+    }
+}
@@ -0,0 +1,59 @@
+package sudoku.dialog;
+
+import java.nio.ByteBuffer;
+
+import sudoku.dialog.NetworkAdapter.MessageListener;
+import sudoku.dialog.NetworkAdapter.MessageType;
+
+/**
+ * Encodes and decodes the messages of the protocol documented in
+ * {@link NetworkAdapter} to and from bytes. There are two codecs: the
+ * original one-line-per-message {@link TextCodec} and the more compact
+ * {@link BinaryCodec}. Text is used until a player asks for binary
+ * messages in its join or create message; every binary message starts
+ * with a byte that has its highest bit set and every text message with
+ * a letter, so a reader can tell them apart and accept both at any time.
+ *
+ * <p>
+ * A message is given as its type and the arguments of
+ * {@link MessageListener#messageReceived(MessageType, int, int, int, int[])}.
+ * Codecs have no state, so one instance can be shared by any number of
+ * connections.
+ * </p>
+ *
+ * <pre>
+ *  ByteBuffer bytes = MessageCodec.BINARY.encode(MessageType.FILL, 1, 2, 3, null);
+ *  MessageCodec.of(bytes).decode(bytes, listener); // listener gets FILL, 1, 2, 3
+ * </pre>
+ */
+public interface MessageCodec {
+
+    /** Shared text codec. */
+    TextCodec TEXT = new TextCodec();
+
+    /** Shared binary codec. */
+    BinaryCodec BINARY = new BinaryCodec();
+
+    /**
+     * Return the given message encoded as a new buffer ready to be written.
+     * Others may be null if the message has no other arguments.
+     *
+     * @throws IllegalArgumentException If the type is not a message, e.g., CLOSE.
+     */
+    ByteBuffer encode(MessageType type, int x, int y, int z, int[] others);
+
+    /**
+     * Decode the message at the position of the given buffer, notify it to
+     * the given listener and move the position past it. If the buffer doesn't
+     * hold the whole message yet, return false and leave the position as is.
+     */
+    boolean decode(ByteBuffer in, MessageListener listener);
+
+    /**
+     * Return the codec of the message at the position of the given buffer,
+     * which must have a byte remaining.
+     */
+    static MessageCodec of(ByteBuffer in) {
+        return BinaryCodec.isFrame(in.get(in.position())) ? BINARY : TEXT;
+    }
+}
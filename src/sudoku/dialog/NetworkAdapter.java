@@ -1,14 +1,19 @@
 package sudoku.dialog;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
-import java.io.PrintWriter;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 
 /** 
  * An abstraction of a TCP/IP socket for sending and receiving 
@@ -24,11 +29,14 @@ import java.util.concurrent.LinkedBlockingQueue;
  * A message header identifies a message type and ends with a ":", e.g.,
  * "fill:". A message body contains the content of a message. If it 
  * contains more than one element, they are separated by a ",",
- * e.g., "1,2,3". There are seven different messages as defined below.
+ * e.g., "1,2,3". There are thirteen different messages as defined below.
  * </p>
  * 
  * <ul>
- *     <li>join: -- request to join the peer's current game</li>
+ *     <li>join: [r [,c]] -- request to join the peer's current game or, on a
+ *         server hosting many games, the game of room r; if r is omitted
+ *         or 0, any game with room for another player. If c is 1, the
+ *         peer is asked to send binary messages from then on.</li>
  *     <li>join_ack: n [,s,b] -- acknowledge a join request, where n (response)
  *         is either 0 (declined) or 1 (accepted), s is a board size, and b
  *         is a sequence of non-empty squares of a board, each encoded as:
@@ -39,10 +47,35 @@ import java.util.concurrent.LinkedBlockingQueue;
  *         and b is a board encoded in the same way as the join_ack message.</li>
  *     <li>new_ack: n -- ack new game request, where n (response) is
  *         either 0 (declined) or 1 (accepted).</li>
- *     <li>fill: x, y, v -- fill a square, where x and y are 0-based 
- *         column/row indexes of a square and v is a number.</li>
- *     <li>fill_ack: x, y, v -- acknowledge a fill message.</li>
+ *     <li>fill: x, y, v [,q] -- fill a square, where x and y are 0-based 
+ *         column/row indexes of a square and v is a number. A server hosting
+ *         many games adds q, the sequence number of the change in its room.
+ *         A player of such a server adds instead the number it saw in the
+ *         square, 0 if it was empty; if another player changed the square
+ *         first, the server answers with a fill message without q, carrying
+ *         the number the square has, instead of a fill_ack.</li>
+ *     <li>fill_ack: x, y, v [,q] -- acknowledge a fill message.</li>
  *     <li>quit: -- leaves a game by ending the connection.</li>
+ *     <li>create: s [,c] -- request to create a new room with a new puzzle of
+ *         size s and to join it; c is as in the join message.</li>
+ *     <li>create_ack: n [,r] -- ack create request, where n (response) is
+ *         either 0 (declined) or 1 (accepted) and r is the id of the new room.
+ *         An accepted request is followed by a join_ack message.</li>
+ *     <li>list: -- request the rooms of a server.</li>
+ *     <li>list_ack: l -- answer a list request, where l is a sequence of
+ *         rooms, each encoded as: r,p,s (r: room id, p: number of players,
+ *         s: board size).</li>
+ *     <li>resume: r,q,t -- request to rejoin room r after losing the connection,
+ *         where q is the sequence number of the last change received and t
+ *         is the token of the seat, as given by the last resume_ack.</li>
+ *     <li>resume_ack: n [,r,q,t] -- tell the room and sequence number to resume
+ *         from later, where n (response) is either 0 (declined) or 1, r is the
+ *         room id, q is the sequence number of its last change and t is the
+ *         token of the player's seat, which only the player is told and
+ *         without which the seat can't be resumed. It follows every join_ack
+ *         of a server hosting many games, and ends the answer to a resume
+ *         request: the changes missed, as fill messages, or a join_ack with
+ *         the whole board if too many were missed.</li>
  * </ul>
  *
  *<p>
@@ -108,6 +141,56 @@ import java.util.concurrent.LinkedBlockingQueue;
  *    |------------>| quit: -- quit the game (disconnected!)
  * </pre>
  * 
+ * 6. Creating and joining rooms of a server hosting many games
+ * <pre>
+ *  Client A      Server      Client B
+ *    |------------>|           | create: 9 -- create a room
+ *    |<------------|           | create_ack:1,7 -- room 7 created
+ *    |<------------|           | join_ack:1,9,0,0,2,1,... -- board of room 7
+ *    |             |<----------| list: -- request the rooms
+ *    |             |---------->| list_ack:7,1,9 -- room 7, 1 player, 9x9
+ *    |             |<----------| join:7 -- join room 7
+ *    |             |---------->| join_ack:1,9,0,0,2,1,... -- board of room 7
+ *    |             |---------->| resume_ack:1,7,0,5821 -- room 7 at change 0, seat token 5821
+ *    ...
+ * </pre>
+ * 
+ * 7. Resuming a game after losing the connection
+ * <pre>
+ *  Client        Server
+ *    |<------------| fill:3,4,2,41 -- change 41 of the room
+ *    |      X      | (connection lost; the server keeps the room a while)
+ *    |------------>| resume:7,41,5821 -- reconnect; last change received is 41
+ *    |<------------| fill:2,3,5,42 -- the changes missed
+ *    |<------------| fill:1,1,9,43
+ *    |<------------| resume_ack:1,7,43,5821 -- up to date
+ *    ...
+ * </pre>
+ * 
+ * 8. Filling the same square at once in a room
+ * <pre>
+ *  Client A      Server      Client B
+ *    |------------>|           | fill:3,4,2,0 -- fill the empty square
+ *    |             |<----------| fill:3,4,7,0 -- fill it too
+ *    |<------------|           | fill_ack:3,4,2,44 -- A's fill is change 44
+ *    |             |---------->| fill:3,4,2,44
+ *    |             |---------->| fill:3,4,2 -- conflict: B's fill is dropped
+ *    ...
+ * </pre>
+ * 
+ * <p>
+ * Messages can also be sent as compact binary frames; see {@link BinaryCodec}.
+ * A player asks for them with the c argument of its join or create message,
+ * sent as text, and then sends binary messages itself. The peer answers in
+ * binary from then on. Each binary message starts with a byte that has its
+ * highest bit set, so text and binary messages can be read from the same
+ * connection, and every message is notified the same way either way.
+ * </p>
+ *
+ * <pre>
+ *  network.writeJoin(0, true); // join any game, then talk binary
+ * </pre>
+ *
  * <p>
  * To receive messages from the peer, register a {@link MessageListener}
  * and then call the {@link #receiveMessagesAsync()} method as shown below.
@@ -120,13 +203,19 @@ import java.util.concurrent.LinkedBlockingQueue;
  *  network.setMessageListener(new NetworkAdapter.MessageListener() {
  *      public void messageReceived(NetworkAdapter.MessageType type, int x, int y, int z, int[] others) {
  *        switch (type) {
- *          case JOIN: ... 
+ *          case JOIN: ...     // x (room), y (codec)
  *          case JOIN_ACK: ... // x (response), y (size), others (board)
  *          case NEW: ...      // x (size), others (board)
  *          case NEW_ACK: ...  // x (response)
- *          case FILL: ...     // x (x), y (y), z (number)
- *          case FILL_ACK: ... // x (x), y (y), z (number)
+ *          case FILL: ...     // x (x), y (y), z (number), others (sequence, if any)
+ *          case FILL_ACK: ... // x (x), y (y), z (number), others (sequence, if any)
  *          case QUIT: ...
+ *          case CREATE: ...     // x (size), y (codec)
+ *          case CREATE_ACK: ... // x (response), y (room)
+ *          case LIST: ...
+ *          case LIST_ACK: ...   // others (rooms)
+ *          case RESUME: ...     // x (room), y (sequence), z (token)
+ *          case RESUME_ACK: ... // x (response), y (room), z (sequence), others (token)
  *          ...
  *        }
  *      }
@@ -149,6 +238,37 @@ import java.util.concurrent.LinkedBlockingQueue;
  *  network.close();
  * </pre>
  *
+ * <p>
+ * Messages waiting to be sent are kept in a queue of limited capacity.
+ * The writer sends all messages queued when it wakes up in one write and
+ * flush. If the peer doesn't keep up and the queue fills, the
+ * {@link OverflowPolicy} of the adapter decides what happens to the next
+ * message: the connection is closed (the default), so that a stalled peer
+ * never stalls the thread writing to it, e.g., a game loop, the caller waits
+ * for room, or the oldest queued message is dropped. The queue length, flush
+ * count and dropped message count can be queried to watch a slow peer.
+ * </p>
+ *
+ * <pre>
+ *  network.setWriteQueueLimit(256, NetworkAdapter.OverflowPolicy.DROP_OLDEST);
+ * </pre>
+ *
+ * <p>
+ * By default, each adapter uses two threads of its own, one to read and
+ * one to write messages. An adapter created with <code>virtualThreads</code>
+ * set to true instead runs its reader and writer on virtual threads, from
+ * an executor shared by all such adapters of the process. An idle
+ * connection then costs no operating system thread, yet the reader and
+ * writer still block as usual. If the Java runtime has no virtual threads,
+ * they run on a shared pool of daemon threads. This mode is opt-in: the
+ * game classes of this package use threads of their own, as the server
+ * hosting many games reads its connections with selectors instead.
+ * </p>
+ * 
+ * <pre>
+ *  NetworkAdapter network = new NetworkAdapter(socket, null, true);
+ * </pre>
+ *
  * @author cheon
  * @see MessageType
  * @see MessageListener
@@ -162,7 +282,12 @@ public class NetworkAdapter {
         /** Quit the game. This message has the form "quit:". */
         QUIT ("quit:"), 
         
-        /** Request to join an existing game. This message has the form "join:". */
+        /** 
+         * Request to join an existing game. This message has the form "join: [r [,c]]",
+         * where r is the id of the room to join; if r is omitted or 0, any game
+         * with room for another player is joined. If c is 1, the peer is asked
+         * to send binary messages.
+         */
         JOIN ("join:"), 
         
         /** 
@@ -203,6 +328,50 @@ public class NetworkAdapter {
          */
         FILL_ACK ("fill_ack:"), 
         
+        /** 
+         * Request to create a new room with a new puzzle and to join it. This
+         * message has the form "create: s [,c]", where s is the board size and
+         * c is as in the join message.
+         */
+        CREATE ("create:"), 
+        
+        /** 
+         * Acknowledgement of a create request. This message has the form 
+         * "create_ack: n [,r]", where n (response) is either 0 (declined) or
+         * 1 (accepted) and r is the id of the new room. An accepted request
+         * is followed by a join_ack message with the board of the room.
+         */
+        CREATE_ACK ("create_ack:"), 
+        
+        /** Request for the rooms of a server. This message has the form "list:". */
+        LIST ("list:"), 
+        
+        /** 
+         * Rooms of a server. This message has the form "list_ack: l", where l
+         * is a sequence of rooms, each encoded as: r,p,s (where r: room id,
+         * p: number of players, s: board size).
+         */
+        LIST_ACK ("list_ack:"), 
+        
+        /** 
+         * Request to rejoin a room after losing the connection. This message
+         * has the form "resume: r,q,t", where r is the room id, q is the
+         * sequence number of the last change of the room received and t is
+         * the token of the seat.
+         */
+        RESUME ("resume:"), 
+        
+        /** 
+         * The room and sequence number to resume from. This message has the
+         * form "resume_ack: n [,r,q,t]", where n (response) is either 0 (declined)
+         * or 1 (accepted), r is the room id, q is the sequence number of
+         * the last change of the room and t is the token of the player's
+         * seat, needed to resume it. It follows the changes missed, or the
+         * whole board, sent for a resume request, and every join_ack message
+         * of a server hosting many games.
+         */
+        RESUME_ACK ("resume_ack:"), 
+        
         /** Connection closed. To notify when the socket is closed. */
         CLOSE (null), 
         
@@ -215,6 +384,11 @@ public class NetworkAdapter {
         MessageType(String header) {
             this.header = header;
         }
+        
+        /** Return the header of this message, e.g., "fill:". */
+        String header() {
+            return header;
+        }
 
     };
 
@@ -235,19 +409,53 @@ public class NetworkAdapter {
         void messageReceived(MessageType type, int x, int y, int z, int[] others);
     }
 
+    /** What to do with a message written when the queue of messages to send is full. */
+    public enum OverflowPolicy {
+
+        /** Wait until the queue has room for the message; the writing thread stalls with the peer. */
+        BLOCK,
+
+        /** Drop the oldest message of the queue to make room for the message. */
+        DROP_OLDEST,
+
+        /** Drop the message and close the connection, as the peer doesn't keep up; the default. */
+        DISCONNECT
+    }
+
     private static final int[] EMPTY_INT_ARRAY = new int[0];
     
+    /** Initial size of the buffer to read messages in bytes. */
+    private static final int BUFFER_SIZE = 4096;
+    
+    /** The c argument of join and create messages asking for binary messages. */
+    private static final int BINARY = 1;
+    
+    /** Number of messages that can wait to be sent, by default. */
+    private static final int DEFAULT_WRITE_QUEUE_CAPACITY = 1024;
+    
     /** To be notified when a message is received. */
     private MessageListener listener;
     
     /** Asynchronous message writer. */
     private MessageWriter messageWriter;
     
-    /** Reader connected to the peer to read messages from it. */
-    private BufferedReader in;
+    /** Stream connected to the peer to read messages from it. */
+    private InputStream in;
+    
+    /** Stream connected to the peer to write messages to it. */
+    private OutputStream out;
+    
+    /** Encodes the messages written; text until binary is asked for. */
+    private volatile MessageCodec codec = MessageCodec.TEXT;
+    
+    /** Room to resume, as told by the last resume_ack message received, or 0. */
+    private volatile int room;
     
-    /** Writer connected to the peer to write messages to it. */
-    private PrintWriter out;
+    /** Sequence number of the last change of the room received. */
+    private volatile int sequence;
+    
+    /** Token of the seat in the room, as told by the last resume_ack message received, or 0. */
+    private volatile int token;
     
     /** If not null, log all messages sent and received. */
     private PrintStream logger;
@@ -255,6 +463,12 @@ public class NetworkAdapter {
     /** Associated socket to communicate with the peer. */
     private Socket socket;
     
+    /** Runs the reader and writer, or null to give each a thread of its own. */
+    private final Executor executor;
+    
+    /** Shared executor of the adapters that use virtual threads. */
+    private static ExecutorService virtualThreads;
+    
     /** 
      * Create a new network adapter to read messages from and to write
      * messages to the given socket.
@@ -274,17 +488,65 @@ public class NetworkAdapter {
      * @param logger Log all incoming and outgoing messages.
      */
     public NetworkAdapter(Socket socket, PrintStream logger) {
+        this(socket, logger, false);
+    }
+    
+    /** 
+     * Create a new network adapter. Messages are to be read from and 
+     * written to the given socket. All incoming and outgoing 
+     * messages will be logged on the given logger.
+     * 
+     * @param socket Socket to read and write messages.
+     * @param logger Log all incoming and outgoing messages, if not null.
+     * @param virtualThreads Read and write messages on virtual threads
+     *   shared by the process instead of two threads of this adapter.
+     */
+    public NetworkAdapter(Socket socket, PrintStream logger, boolean virtualThreads) {
     	this.socket = socket;
         this.logger = logger;
+        executor = virtualThreads ? virtualThreads() : null;
         messageWriter = new MessageWriter();
         try {
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()));
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
         } catch (IOException e) {
             throw new IllegalArgumentException(e);
         }
     }
     
+    /** 
+     * Return the executor shared by the adapters that use virtual threads,
+     * creating it the first time. Virtual threads are looked up reflectively
+     * so this class also runs on Java versions without them.
+     */
+    private static synchronized Executor virtualThreads() {
+        if (virtualThreads == null) {
+            try {
+                virtualThreads = (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                virtualThreads = Executors.newCachedThreadPool(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "NetworkAdapter");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+        }
+        return virtualThreads;
+    }
+    
+    /** Run the given task on a thread of the executor or a new thread. */
+    private void run(Runnable task) {
+        if (executor != null) {
+            executor.execute(task);
+        } else {
+            new Thread(task).start();
+        }
+    }
+    
     /** Return the associated socket.
      * @return Socket associated with this adapter.
      */
@@ -292,6 +554,70 @@ public class NetworkAdapter {
     	return socket;
     }
     
+    /**
+     * Limit the number of messages waiting to be sent to the given capacity,
+     * and handle a message written when the limit is reached as given. This
+     * method must be called before any message is written.
+     *
+     * @param capacity Number of messages that can wait to be sent.
+     * @param policy What to do with a message written when the queue is full.
+     * @throws IllegalStateException If a message has already been written.
+     */
+    public void setWriteQueueLimit(int capacity, OverflowPolicy policy) {
+        messageWriter.setLimit(capacity, policy);
+    }
+    
+    /** Return the number of messages waiting to be sent. */
+    public int getQueuedMessageCount() {
+        return messageWriter.messages.size();
+    }
+    
+    /** Return the number of times messages have been flushed to the socket. */
+    public long getFlushCount() {
+        return messageWriter.flushCount;
+    }
+    
+    /** Return the number of messages sent. */
+    public long getSentMessageCount() {
+        return messageWriter.sentCount;
+    }
+    
+    /** Return the number of messages dropped because the queue was full. */
+    public long getDroppedMessageCount() {
+        return messageWriter.droppedCount;
+    }
+    
+    /**
+     * Return the room of a server hosting many games that this adapter is
+     * in, as told by the last resume_ack message received, or 0 if none.
+     *
+     * @see #writeResume(int, int, int)
+     */
+    public int getRoom() {
+        return room;
+    }
+    
+    /**
+     * Return the sequence number of the last change of the room received,
+     * to resume from if the connection is lost.
+     *
+     * @see #writeResume(int, int, int)
+     */
+    public int getLastSequence() {
+        return sequence;
+    }
+    
+    /**
+     * Return the token of this adapter's seat in its room, as told by the
+     * last resume_ack message received, or 0 if none; it is needed to
+     * resume the room if the connection is lost.
+     *
+     * @see #writeResume(int, int, int)
+     */
+    public int getResumeToken() {
+        return token;
+    }
+    
     /** Close the IO streams of this adapter. Note that the socket
      * to which the streams are attached is not closed by
      * this method. */
@@ -331,24 +657,56 @@ public class NetworkAdapter {
      * @see #receiveMessagesAsync()
      */
     public void receiveMessages() {
-        String line = null;
-        try {
-            while ((line = in.readLine()) != null) {
+        MessageListener receiver = new MessageListener() {
+            @Override
+            public void messageReceived(MessageType type, int x, int y, int z, int[] others) {
                 if (logger != null) {
-                    logger.format(" < %s\n", line);
+                    logger.format(" < %s\n", describe(type, x, y, z, others));
+                }
+                if ((type == MessageType.JOIN || type == MessageType.CREATE) && y == BINARY) {
+                    codec = MessageCodec.BINARY;
+                }
+                if (type == MessageType.RESUME_ACK && x == 1) {
+                    room = y;
+                    sequence = z;
+                    token = others.length > 0 ? others[0] : 0;
+                } else if ((type == MessageType.FILL || type == MessageType.FILL_ACK) && others.length > 0) {
+                    sequence = others[0];
+                }
+                listener.messageReceived(type, x, y, z, others);
+            }
+        };
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try {
+            int n;
+            while ((n = in.read(buffer.array(), buffer.position(), buffer.remaining())) != -1) {
+                buffer.position(buffer.position() + n);
+                buffer.flip();
+                while (buffer.hasRemaining() && MessageCodec.of(buffer).decode(buffer, receiver)) {
+                }
+                buffer.compact();
+                if (!buffer.hasRemaining()) {
+                    // a message longer than the buffer
+                    buffer.flip();
+                    buffer = ByteBuffer.allocate(2 * buffer.capacity()).put(buffer);
                 }
-                parseMessage(line);
             }
         } catch (IOException e) {
         }
         notifyMessage(MessageType.CLOSE);
     }
     
+    /** Return the given message as text, for the logger. */
+    private static String describe(MessageType type, int x, int y, int z, int[] others) {
+        return type == MessageType.UNKNOWN ? type.name() : MessageCodec.TEXT.format(type, x, y, z, others);
+    }
+    
     /**
      * Start accepting messages asynchronously from this network
      * adapter and notifying them to the registered listener.
      * This method doesn't block the caller. Instead, a new
-     * background thread is created to read incoming messages.
+     * background thread, or a virtual thread if this adapter
+     * uses them, is created to read incoming messages.
      * To receive messages synchronously, use the
      * {@link #receiveMessages()} method.
      *
@@ -356,129 +714,17 @@ public class NetworkAdapter {
      * @see #receiveMessages()
      */
     public void receiveMessagesAsync() {
-        new Thread(new Runnable() {
+        run(new Runnable() {
             @Override
             public void run() {
                 receiveMessages();
             }
-        }).start();
-    }
-
-    /** Parse the given message and notify to the registered listener. */
-    private void parseMessage(String msg) {
-        if (msg.startsWith(MessageType.QUIT.header)) {
-                notifyMessage(MessageType.QUIT);
-        } else if (msg.startsWith(MessageType.JOIN_ACK.header)) {
-            parseJoinAckMessage(msgBody(msg));
-        } else if (msg.startsWith(MessageType.JOIN.header)) {
-            notifyMessage(MessageType.JOIN);
-        } else if (msg.startsWith(MessageType.NEW_ACK.header)) {
-        	parseNewAckMessage(msgBody(msg));
-        } else if (msg.startsWith(MessageType.NEW.header)) {
-        	parseNewMessage(msgBody(msg));
-        } else if (msg.startsWith(MessageType.FILL_ACK.header)) {
-            parseFillMessage(MessageType.FILL_ACK, msgBody(msg));
-        } else if (msg.startsWith(MessageType.FILL.header)){
-            parseFillMessage(MessageType.FILL, msgBody(msg));
-        } else {
-            notifyMessage(MessageType.UNKNOWN);
-        }
-    }
-
-    /** Parse and return the body of the given message. */
-    private String msgBody(String msg) {
-        int i = msg.indexOf(':');
-        if (i > -1) {
-            msg = msg.substring(i + 1);
-        }
-        return msg;
-    }
-
-    /** Parse and notify the given play_ack message body. */
-    private void parseJoinAckMessage(String msgBody) {
-        String[] parts = msgBody.split(",");
-        if (parts.length >= 1) {
-        	// message: join_ack 0
-        	int response = parseInt(parts[0].trim());
-        	if (response == 0) {
-        		notifyMessage(MessageType.JOIN_ACK, 0);
-        		return;
-        	}
-        	if (response == 1 && parts.length >= 2) {
-        		// message: join_ack 1 size squares
-        		int size = parseInt(parts[1].trim());
-        		if (size > 0) {
-        			int[] others = new int[parts.length - 2];
-        			for (int i = 2; i < parts.length; i++) {
-        				others[i-2] = parseInt(parts[i]);
-        			}
-        			notifyMessage(MessageType.JOIN_ACK, 1, size, others);
-        			return;
-        		}
-        	}
-        }
-        notifyMessage(MessageType.UNKNOWN);
-    }
-    
-    /** Parse and notify the given new_ack message body. */
-    private void parseNewAckMessage(String msgBody) {
-        String[] parts = msgBody.split(",");
-        if (parts.length >= 1) {
-        	// message: new_ack response
-        	int response = parseInt(parts[0].trim());
-        	response = response == 0 ? 0 : 1;
-        	notifyMessage(MessageType.NEW_ACK, response);
-        	return;
-        }
-        notifyMessage(MessageType.UNKNOWN);
-    } 
-    
-    /** Parse and notify the given play_ack message body. */
-    private void parseNewMessage(String msgBody) {
-        String[] parts = msgBody.split(",");
-        if (parts.length >= 1) {
-        	// message: new size squares
-        	int size = parseInt(parts[0].trim());
-        	if (size > 0) {
-        		int[] others = new int[parts.length - 1];
-        		for (int i = 1; i < parts.length; i++) {
-        			others[i-1] = parseInt(parts[i]);
-        		}
-        		notifyMessage(MessageType.NEW, size, others);
-        		return;
-        	}
-        }
-        notifyMessage(MessageType.UNKNOWN);
-    }    
-
-    /** 
-     * Parse the given string as an int; return -1 if the input
-     * is not well-formed. 
-     */
-    private int parseInt(String txt) {
-        try {
-            return Integer.parseInt(txt);
-        } catch (NumberFormatException e) {
-            return -1;
-        }
-    }
-    
-    /** Parse and notify the given move or move_ack message. */
-    private void parseFillMessage(MessageType type, String msgBody) {
-        String[] parts = msgBody.split(",");
-        if (parts.length >= 3) {
-            int x = parseInt(parts[0].trim());
-            int y = parseInt(parts[1].trim());
-            int v = parseInt(parts[2].trim());
-            notifyMessage(type, x, y, v);
-        } else {
-            notifyMessage(MessageType.UNKNOWN);
-        }
+        });
     }
 
     /** Write the given message asynchronously. */
-    private void writeMsg(String msg) {
-        messageWriter.write(msg);
+    private void writeMsg(MessageType type, int x, int y, int z, int[] others) {
+        messageWriter.write(type, x, y, z, others);
     }
     
     /**
@@ -488,7 +734,33 @@ public class NetworkAdapter {
      * @see #writeJoinAck(int, int...)
      */
     public void writeJoin() {
-        writeMsg(MessageType.JOIN.header);
+        writeJoin(0);
+    }
+    
+    /**
+     * Write a join message for the given room asynchronously.
+     *
+     * @param room Id of the room to join, or 0 for any room.
+     *
+     * @see #writeList()
+     */
+    public void writeJoin(int room) {
+        writeJoin(room, false);
+    }
+    
+    /**
+     * Write a join message for the given room asynchronously, asking the
+     * peer to send binary messages if binary is true. The join message is
+     * written as text, and the messages written after it as binary.
+     *
+     * @param room Id of the room to join, or 0 for any room.
+     * @param binary True to switch to binary messages.
+     */
+    public void writeJoin(int room, boolean binary) {
+        writeMsg(MessageType.JOIN, room, binary ? BINARY : 0, 0, null);
+        if (binary) {
+            codec = MessageCodec.BINARY;
+        }
     }
 
     /**
@@ -497,7 +769,7 @@ public class NetworkAdapter {
      * @see #writeJoin()
      */
     public void writeJoinAck() {
-        writeMsg(MessageType.JOIN_ACK.header + "0");
+        writeMsg(MessageType.JOIN_ACK, 0, 0, 0, null);
     }
     
     /**
@@ -512,14 +784,7 @@ public class NetworkAdapter {
      * @see #writeJoin()
      */
     public void writeJoinAck(int size, int... squares) {
-    	StringBuilder builder = new StringBuilder(MessageType.JOIN_ACK.header);
-    	builder.append("1,"); 
-    	builder.append(size);
-    	for (int v: squares) {
-    		builder.append(",");
-    		builder.append(v);
-    	}
-        writeMsg(builder.toString());
+        writeMsg(MessageType.JOIN_ACK, 1, size, 0, squares);
     }
     
     /**
@@ -534,13 +799,7 @@ public class NetworkAdapter {
      * @see #writeNewAck(boolean)
      */
     public void writeNew(int size, int... squares) {
-    	StringBuilder builder = new StringBuilder(MessageType.NEW.header);
-    	builder.append(size);
-    	for (int v: squares) {
-    		builder.append(",");
-    		builder.append(v);
-    	}
-        writeMsg(builder.toString());    	
+        writeMsg(MessageType.NEW, size, 0, 0, squares);
     }
     
     /**
@@ -551,12 +810,7 @@ public class NetworkAdapter {
      * @see #writeNew(int, int...)
      */
     public void writeNewAck(boolean response) {
-        writeMsg(MessageType.NEW_ACK.header + toInt(response));
-    }
-    
-    /** Convert the given boolean flag to an int. */
-    private int toInt(boolean flag) {
-        return flag ? 1: 0;
+        writeMsg(MessageType.NEW_ACK, response ? 1 : 0, 0, 0, null);
     }
     
     /**
@@ -569,7 +823,7 @@ public class NetworkAdapter {
      * @see #writeFillAck(int, int, int)
      */
     public void writeFill(int x, int y, int number) {
-        writeMsg(String.format("%s%s,%s,%s", MessageType.FILL.header, x, y, number));
+        writeMsg(MessageType.FILL, x, y, number, null);
     }
 
     /**
@@ -582,87 +836,293 @@ public class NetworkAdapter {
      * @see #writeFill(int, int, int)
      */
     public void writeFillAck(int x, int y, int number) {
-        writeMsg(String.format("%s%s,%s,%s", MessageType.FILL_ACK.header, x, y, number));
+        writeMsg(MessageType.FILL_ACK, x, y, number, null);
     }
     
     /** Write a quit (gg) message (to quit the game) asynchronously. */
     public void writeQuit() {
-        writeMsg(MessageType.QUIT.header);
+        writeMsg(MessageType.QUIT, 0, 0, 0, null);
     }
     
-    /** Notify the listener the receipt of the given message type. */
-    private void notifyMessage(MessageType type) {
-        listener.messageReceived(type, 0, 0, 0, EMPTY_INT_ARRAY);
+    /**
+     * Write a create message asynchronously.
+     * 
+     * @param size Size of the board of the new room
+     *
+     * @see #writeCreateAck(int)
+     */
+    public void writeCreate(int size) {
+        writeCreate(size, false);
     }
     
-    /** Notify the listener the receipt of the given message type. */
-    private void notifyMessage(MessageType type, int x) {
-        listener.messageReceived(type, x, 0, 0, EMPTY_INT_ARRAY);
+    /**
+     * Write a create message asynchronously, asking the peer to send binary
+     * messages if binary is true, as in {@link #writeJoin(int, boolean)}.
+     * 
+     * @param size Size of the board of the new room
+     * @param binary True to switch to binary messages.
+     */
+    public void writeCreate(int size, boolean binary) {
+        writeMsg(MessageType.CREATE, size, binary ? BINARY : 0, 0, null);
+        if (binary) {
+            codec = MessageCodec.BINARY;
+        }
     }
     
-    /** Notify the listener the receipt of the given message type. */
-    private void notifyMessage(MessageType type, int x, int[] others) {
-        listener.messageReceived(type, x, 0, 0, others);
+    /**
+     * Write a "declined" create_ack message asynchronously.
+     *
+     * @see #writeCreate(int)
+     */
+    public void writeCreateAck() {
+        writeMsg(MessageType.CREATE_ACK, 0, 0, 0, null);
     }
     
-    /** Notify the listener the receipt of the given message. */
-    private void notifyMessage(MessageType type, int x, int y, int v) {
-        listener.messageReceived(type, x, y, v, EMPTY_INT_ARRAY);
+    /**
+     * Write an "accepted" create_ack message asynchronously.
+     * 
+     * @param room Id of the new room
+     *
+     * @see #writeCreate(int)
+     */
+    public void writeCreateAck(int room) {
+        writeMsg(MessageType.CREATE_ACK, 1, room, 0, null);
+    }
+    
+    /**
+     * Write a list message asynchronously.
+     *
+     * @see #writeListAck(int...)
+     */
+    public void writeList() {
+        writeMsg(MessageType.LIST, 0, 0, 0, null);
+    }
+    
+    /**
+     * Write a list_ack message asynchronously.
+     * 
+     * @param rooms Rooms of the server. Each room is represented as a tuple
+     *   of (r, p, s), where r is the room id, p is the number of players
+     *   and s is the board size.
+     *
+     * @see #writeList()
+     */
+    public void writeListAck(int... rooms) {
+        writeMsg(MessageType.LIST_ACK, 0, 0, 0, rooms);
+    }
+    
+    /**
+     * Write a resume message asynchronously, to rejoin a room after losing
+     * the connection, typically with the room and sequence number of the
+     * adapter of the lost connection.
+     * 
+     * <pre>
+     *  network.writeResume(lost.getRoom(), lost.getLastSequence(), lost.getResumeToken());
+     * </pre>
+     * 
+     * @param room Id of the room to rejoin
+     * @param sequence Sequence number of the last change of the room received
+     * @param token Token of the seat, as told by the last resume_ack
+     *
+     * @see #writeResumeAck(int, int, int)
+     */
+    public void writeResume(int room, int sequence, int token) {
+        writeMsg(MessageType.RESUME, room, sequence, token, null);
+    }
+    
+    /**
+     * Write a "declined" resume_ack message asynchronously.
+     *
+     * @see #writeResume(int, int, int)
+     */
+    public void writeResumeAck() {
+        writeMsg(MessageType.RESUME_ACK, 0, 0, 0, null);
+    }
+    
+    /**
+     * Write a resume_ack message asynchronously.
+     * 
+     * @param room Id of the room
+     * @param sequence Sequence number of the last change of the room
+     * @param token Token of the player's seat
+     *
+     * @see #writeResume(int, int, int)
+     */
+    public void writeResumeAck(int room, int sequence, int token) {
+        writeMsg(MessageType.RESUME_ACK, 1, room, sequence, new int[] { token });
     }
     
     /** Notify the listener the receipt of the given message type. */
-    private void notifyMessage(MessageType type, int x, int y, int[] others) {
-        listener.messageReceived(type, x, y, 0, others);
+    private void notifyMessage(MessageType type) {
+        listener.messageReceived(type, 0, 0, 0, EMPTY_INT_ARRAY);
     }
+    
   
     /** 
      * Write messages asynchronously. This class uses a single 
      * background thread to write messages asynchronously in a FIFO
-     * fashion. To stop the background thread, call the stop() method.
+     * fashion, all messages queued at a time in one write. To stop
+     * the background thread, call the stop() method.
      */
     private class MessageWriter {
         
-        /** Background thread to write messages asynchronously. */
+        /** Background thread to write messages asynchronously, while it runs the loop. */
         private Thread writerThread;
         
-        /** Store messages to be written asynchronously. */
-        private BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+        /** Guards writerThread, so it is interrupted only while it runs the loop. */
+        private final Object threadLock = new Object();
+        
+        /** True if the background thread has been started. */
+        private boolean started;
+        
+        /** True if this writer has been stopped. */
+        private volatile boolean stopped;
+        
+        /** Store messages to be written asynchronously, encoded. */
+        private BlockingQueue<ByteBuffer> messages = new LinkedBlockingQueue<>(DEFAULT_WRITE_QUEUE_CAPACITY);
+        
+        /** What to do with a message written when the queue is full. */
+        private OverflowPolicy policy = OverflowPolicy.DISCONNECT;
+        
+        /** Number of flushes; changed only by the background thread. */
+        private volatile long flushCount;
+        
+        /** Number of messages sent; changed only by the background thread. */
+        private volatile long sentCount;
+        
+        /** Number of messages dropped; changed only while holding the lock of this writer. */
+        private volatile long droppedCount;
+        
+        /** Limit the queue to the given capacity and overflow policy, before any write. */
+        public synchronized void setLimit(int capacity, OverflowPolicy policy) {
+            if (started) {
+                throw new IllegalStateException("Messages have already been written");
+            }
+            messages = new LinkedBlockingQueue<>(capacity);
+            this.policy = policy;
+        }
 
-        /** Write the given message asynchronously on a new thread. */
-        public void write(final String msg) {
-            if (writerThread == null) {
-                writerThread = new Thread(new Runnable() {
+        /** Write the given message asynchronously on a background thread. */
+        public synchronized void write(MessageType type, int x, int y, int z, int[] others) {
+            if (stopped) {
+                return;
+            }
+            if (!started) {
+                started = true;
+                run(new Runnable() {
                     @Override
                     public void run() {
-                        while (true) {
-                            try {
-                                String m = messages.take();
-                                out.println(m);
-                                out.flush();
-                            } catch (InterruptedException e) {
-                                return;
-                            }
-                        }
+                        writeMessages();
                     }
                 });
-                writerThread.start();
             }
 
-            synchronized (messages) {
+            ByteBuffer msg = codec.encode(type, x, y, z, others);
+            switch (policy) {
+            case BLOCK:
                 try {
                     messages.put(msg);
-                    if (logger != null) {
-                        logger.format(" > %s\n", msg);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                break;
+            case DROP_OLDEST:
+                while (!messages.offer(msg)) {
+                    if (messages.poll() != null) {
+                        droppedCount++;
+                    }
+                }
+                break;
+            case DISCONNECT:
+                if (!messages.offer(msg)) {
+                    droppedCount++;
+                    disconnect();
+                    return;
+                }
+                break;
+            }
+            if (logger != null) {
+                logger.format(" > %s\n", describe(type, x, y, z, others));
+            }
+        }
+        
+        /**
+         * Write the queued messages until stopped. Each time, all messages
+         * queued are copied to one buffer and written and flushed together.
+         */
+        private void writeMessages() {
+            synchronized (threadLock) {
+                if (stopped) {
+                    return;
+                }
+                writerThread = Thread.currentThread();
+            }
+            try {
+                writeLoop();
+            } finally {
+                synchronized (threadLock) {
+                    writerThread = null;
+                    // a thread of the shared executor goes on to other tasks; don't pass them an interrupt
+                    Thread.interrupted();
+                }
+            }
+        }
+        
+        /** Write the queued messages until stopped; called by writeMessages(). */
+        private void writeLoop() {
+            List<ByteBuffer> batch = new ArrayList<>();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!stopped) {
+                try {
+                    batch.add(messages.take());
+                    messages.drainTo(batch);
+                    int length = 0;
+                    for (ByteBuffer m : batch) {
+                        length += m.remaining();
                     }
+                    if (length > buffer.length) {
+                        buffer = new byte[Math.max(length, 2 * buffer.length)];
+                    }
+                    int pos = 0;
+                    for (ByteBuffer m : batch) {
+                        System.arraycopy(m.array(), m.arrayOffset() + m.position(), buffer, pos, m.remaining());
+                        pos += m.remaining();
+                    }
+                    out.write(buffer, 0, length);
+                    out.flush();
+                    flushCount++;
+                    sentCount += batch.size();
+                    batch.clear();
                 } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    stop();
+                    return;
                 }
             }
         }
         
-        /** Stop this message writer. */
+        /**
+         * Close the socket of a peer that doesn't keep up. The reader then
+         * fails and notifies the listener with a CLOSE message.
+         */
+        private void disconnect() {
+            stop();
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+        
+        /** Stop this message writer, dropping the messages not written. */
         public void stop() {
-            if (writerThread != null) {
-                writerThread.interrupt();
+            stopped = true;
+            messages.clear(); // let writers waiting for room go
+            synchronized (threadLock) {
+                if (writerThread != null) {
+                    writerThread.interrupt();
+                }
             }
         }
     }
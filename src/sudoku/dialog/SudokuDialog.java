@@ -20,19 +20,22 @@ import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.net.BindException;
 import java.net.ConnectException;
 import java.net.InetAddress;
+import java.net.ServerSocket;
 import java.net.URL;
 import java.net.UnknownHostException;
-import java.util.LinkedList;
 
 import java.util.Stack;
+import java.util.concurrent.CompletableFuture;
 
 import javax.imageio.ImageIO;
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
 import javax.swing.ImageIcon;
+import javax.swing.JDialog;
 import javax.swing.JButton;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
@@ -43,10 +46,11 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JToolBar;
 import javax.swing.KeyStroke;
-
-import com.sun.corba.se.impl.activation.ServerMain;
+import javax.swing.SwingUtilities;
 
 import sudoku.model.Board;
+import sudoku.model.PuzzlePool;
+import sudoku.model.SquareSet;
 
 /**
  * A dialog template for playing simple Sudoku games.
@@ -60,33 +64,35 @@ public class SudokuDialog extends JFrame {
 
     /** Default dimension of the dialog. */
     private final static Dimension DEFAULT_SIZE = new Dimension(310, 430);
+    /** Smallest dimension of the dialog for 16x16 and 25x25 boards. */
+    private final static Dimension BIG_BOARD_SIZE = new Dimension(620, 800);
     private boolean setAlready = false ; 
     private final static String IMAGE_DIR = "/image/";
     
     private Stack place = new Stack();
     private Stack removed = new Stack();
 
-    /** Sudoku board. */
+    /** Sudoku board, as last shown; a snapshot that only the game loop makes. */
     private Board board;
-    private boolean init = true; 
-    private LinkedList<Integer> errors;
+    /** Makes the moves of both players on the board, one at a time. */
+    private final GameLoop game;
+    /** Boards generated in the background so a new game doesn't wait for one. */
+    private final PuzzlePool puzzlePool = PuzzlePool.getDefault();
+    private SquareSet errors;
 
     /** Special panel to display a Sudoku board. */
-<<<<<<< HEAD
     private BoardPanel boardPanel;
-
-=======
-    private BoardPanel boardPanel;  
-    private ChatDialogUI cdUI;
->>>>>>> b485d3303fd6586d11b717e9685caf2a0d286fa2
-    private Server servMain;
-    private Client clientMain;
-    private boolean isServer;
-    private boolean isClient;
+    /** Game shared with another player, or null if not connected. */
+    private volatile GameSession session;
+    /** Server socket waiting for the other player of a hosted game, or null; used on the event thread. */
+    private ServerSocket hosting;
     /** Message bar to display various messages. */
     private JLabel msgBar = new JLabel("");
     
     private JPanel curButtons;// these two are necessary for updating buttons allowed. 
+    /** Buttons to enter numbers, and the board size they were made for. */
+    private JPanel numberButtons = new JPanel();
+    private int numberButtonsSize;
     private BorderLayout mainLayout = new BorderLayout(); 
     
     
@@ -95,7 +101,7 @@ public class SudokuDialog extends JFrame {
     private int lastMove = -1;
 
     
-    /** Used to store the x,y coordinates that the user selects on the board. x = x_y/100; y = x_y%100;*/ 
+    /** Used to store the x,y coordinates that the user selects on the board. x = x_y/board.size; y = x_y%board.size;*/ 
     private int x_y;
 
     /** Create a new dialog. */
@@ -107,12 +113,23 @@ public class SudokuDialog extends JFrame {
     public SudokuDialog(Dimension dim) {
         super("Sudoku");
         setSize(dim);
-        board = new Board(9);
+        game = new GameLoop(puzzlePool.take(9), this::showBoard);
+        board = game.getSnapshot();
         boardPanel = new BoardPanel(board, this::boardClicked);
         configureUI();
         setDefaultCloseOperation(DISPOSE_ON_CLOSE);
         setVisible(true);
     }
+    
+    /** Leave the shared game, if any, when the dialog is closed. */
+    @Override
+    public void dispose() {
+    	stopHosting();
+    	if(session != null)
+    		session.close();
+    	game.stop();
+    	super.dispose();
+    }
 
     /**
      * Callback to be invoked when a square of the board is clicked.
@@ -121,27 +138,7 @@ public class SudokuDialog extends JFrame {
      * Stores selected x,y coordinates in boardPanel and repaints to draw a black square over the coordinate selection
      */
     private void boardClicked(int x, int y) {
-    		boardPanel.setX_y(x*100 + y); //store the selected coordinates into the boardPanel
-    		linkBoards(); 
-    		repaint(); //repaint boardPanel to draw a black square over the coordinate selection
-    }
-    public void linkBoards() {
-    	if(isServer){
-    		if(servMain.reset) {
-    		   board = servMain.retSetBoard();
-    		   servMain.reset = false;
-    		   boardPanel = servMain.boardPanel; 
-    		   boardPanel.repaint(); 
-    		}   
-    	}
-    	if(isClient){
-            if(clientMain.reset) {
-    		   board = clientMain.retSetBoard();
-    		   clientMain.reset = false; 
-    		   boardPanel = clientMain.boardPanel;
-    		   boardPanel.repaint(); 
-            }   
-    	}
+    		boardPanel.setX_y(x*board.size + y); //store the selected coordinates into the boardPanel, which repaints the old and new squares
     }
 
     /**
@@ -150,7 +147,6 @@ public class SudokuDialog extends JFrame {
      * @throws IOException 
      */
     private void numberClicked(int number) throws IOException{
-    	    linkBoards(); 
     		//get the currently selected x and y values
     		x_y = boardPanel.getX_y(); //gets the user's currently selected coordinates
     		
@@ -159,21 +155,18 @@ public class SudokuDialog extends JFrame {
     			showMessage("No square selected");
     			return;
     		}
-    		if(board.boardGenerated[x_y%100][x_y/100]) {
-    			linkBoards();
-    			if(board.boardGenerated[x_y%100][x_y/100]) {
-    			  showMessage("This number cannot be changed x:" +x_y%100+ " Y: "+x_y/100 );	
-    			  return;
-    			}
+    		if(board.isGiven(x_y%board.size, x_y/board.size)) {
+    		  showMessage("This number cannot be changed x:" +x_y%board.size+ " Y: "+x_y/board.size );	
+    		  return;
     		}
     			
     		
     		//if the user selects a previously filled square and chooses x, it deletes the value
-    		if(board.boardInputs[x_y%100][x_y/100] != 0 && number == 0) {
+    		if(board.getValue(x_y%board.size, x_y/board.size) != 0 && number == 0) {
     			//store the move
-    			lastMoveX = x_y/100;
-    			lastMoveY = x_y%100;
-    			lastMove = board.boardInputs[x_y%100][x_y/100];
+    			lastMoveX = x_y/board.size;
+    			lastMoveY = x_y%board.size;
+    			lastMove = board.getValue(x_y%board.size, x_y/board.size);
     			
     			int [] pushArray = {(lastMoveX),(lastMoveY), lastMove};
                 place.push(pushArray);
@@ -181,40 +174,26 @@ public class SudokuDialog extends JFrame {
                    removed.pop();
                 }
     			
-    			board.boardInputs[x_y%100][x_y/100] = number; //setting the value to 0 removes it from the board
-    			
-    				
-    			board.undoMove(); //used to keep track of how many squares have been filled out in the board
-    			repaint(); //update board with the value removed
+    			int x = x_y%board.size, y = x_y/board.size;
+    			game.apply(b -> {
+    				b.setValue(x, y, 0); //setting the value to 0 removes it from the board
+    				b.undoMove(); //used to keep track of how many squares have been filled out in the board
+    				sendChanges();
+    			}); //the board is shown with the value removed once the loop has made the move
     			return;
     		}
     		
     		
-    		//check if the user's number is in the same row or column as the coordinate and is the right size
-    		for(int i = 0; i<board.size; i++) {
-    			if(board.boardInputs[x_y%100][i] == number || board.boardInputs[i][x_y/100] == number || number > board.size()) {
-    				showMessage("Invalid Move\n"); //if we find this number in the same row or column, let the user know the move is invalid
-    				return;
-    			}
-    		}
-    		
-    		//check if the user's number is in the same square
-    		int col = (int) ((x_y/100) - (x_y/100)%Math.sqrt(board.size));//get to left of square that contains selected coordinate
-    		int row = (int) ((x_y%100) - (x_y%100)%Math.sqrt(board.size));//get to top of square that contains selected coordinate
-    		//start checking every value in the square
-    		for(int i = row; i<Math.sqrt(board.size) + row; i++) { 
-    			for(int j = col; j<Math.sqrt(board.size) + col; j++) {
-    				if(board.boardInputs[i][j] == number) { 
-    					showMessage("Invalid Move\n"); //if we find this number anywhere in the square, the move is invalid
-    					return;
-    				}	
-    			}			
+    		//check the user's number is the right size and not already in the same row, column or square
+    		if(number > board.size() || !board.isLegal(x_y%board.size, x_y/board.size, number) || board.getValue(x_y%board.size, x_y/board.size) == number) {
+    			showMessage("Invalid Move\n"); //if we find this number in the same row, column or square, let the user know the move is invalid
+    			return;
     		}
     		
     		//if everything looks good, add the value to the board
-    		lastMoveX = x_y/100;
-    		lastMoveY = x_y%100;
-    		lastMove = board.boardInputs[x_y%100][x_y/100];
+    		lastMoveX = x_y/board.size;
+    		lastMoveY = x_y%board.size;
+    		lastMove = board.getValue(x_y%board.size, x_y/board.size);
     	    
     		if(lastMove == -1) {
     		   int [] pushArray = {(lastMoveX),(lastMoveY), number};
@@ -226,53 +205,16 @@ public class SudokuDialog extends JFrame {
                  removed.pop();
               }
     		}
-    		board.boardInputs[x_y%100][x_y/100] = number;
-    		
-<<<<<<< HEAD
-    		if(isServer && servMain.isServer) {
-				String[] move = {Integer.toString(x_y%100), Integer.toString(x_y/100), Integer.toString(number)};
-				servMain.sendMessage(move);
-			}else if(isClient && clientMain.isClient) {
-				String[] move = {Integer.toString(x_y%100), Integer.toString(x_y/100), Integer.toString(number)};
-				clientMain.sendMessage(move);
-=======
-    		if(isServer) {
-    			if(init) {
-				   String[] move = {Integer.toString(x_y%100), Integer.toString(x_y/100), Integer.toString(number)};
-				   servMain.sendMessage(move);
-    			}else {
-	    			//sendSolution(1);
-	    			String[] s = {"update"};
-	    			servMain.sendMessage(s);
-	    			//clear out the board and add a new board of the requested size
-	        
-	    			servMain.sendBoard(board.boardInputs);
-	        		servMain.sendBoard(board.solvedPuzzle); 
-	    		
-    			}
-	    		
-			}else if(isClient) {
- 				if(init) {
-				   String[] move = {Integer.toString(x_y%100), Integer.toString(x_y/100), Integer.toString(number)};
-				   clientMain.sendMessage(move);
- 				}else {
-	   			   //sendSolution(1);
-    			   String[] s = {"update"};
-    			   clientMain.sendMessage(s);
-    			   //clear out the board and add a new board of the requested size
-        
-    			   clientMain.sendBoard(board.boardInputs);
-        		   clientMain.sendBoard(board.solvedPuzzle); 
- 				}
-
->>>>>>> b485d3303fd6586d11b717e9685caf2a0d286fa2
-			}
+    		int x = x_y%board.size, y = x_y/board.size;
+    		game.apply(b -> {
+    			b.setValue(x, y, number);
+    			b.playerMove(); //update the number of squares that have been filled
+    			sendChanges(); //only the squares changed since the last move; the whole board only if the peer is too far behind
+    		});
     		
     		showMessage(""); //clear any previous error messages
-    		board.playerMove(); //update the number of squares that have been filled
     		boardPanel.setX_y(-1); //Make it so no square is selected now
-    		repaint();
-    		checkWin();
+    		//the move shows, and a win is noticed, once the loop has made it
     		
     }
     
@@ -281,8 +223,10 @@ public class SudokuDialog extends JFrame {
             int [] hld = (int [])place.pop();
             removed.push(hld);
             //System.out.println(hld[2]); 
-	    	board.boardInputs[hld[1]][hld[0]] = 0; 
-	    	repaint();
+	    	game.apply(b -> {
+	    		b.setValue(hld[1], hld[0], 0); 
+	    		sendChanges();
+	    	});
     	}
     	else
     		showMessage("Nothing to Undo");
@@ -292,14 +236,40 @@ public class SudokuDialog extends JFrame {
     	if(!(removed.empty())) {
     		int [] hld = (int [])removed.pop();
             place.push(hld);
-	    	board.boardInputs[hld[1]][hld[0]] = hld[2];
-
-	    	repaint();
+	    	game.apply(b -> {
+	    		b.setValue(hld[1], hld[0], hld[2]);
+	    		sendChanges();
+	    	});
     	}
     	else
     		showMessage("Nothing to Redo");
     }
     
+    /** Send the changes made to the board since the last time to the peer, if connected; called on the game loop. */
+    private void sendChanges() {
+    	GameSession s = session;
+    	if(s != null)
+    		s.sendChanges();
+    }
+    
+    /** 
+     * Show the given snapshot of the board, published by the game loop after
+     * the latest moves, and congratulate the user if they just solved it.
+     */
+    private void showBoard(Board snapshot) {
+    	boolean wasSolved = board.isSolved();
+    	board = snapshot;
+    	boardPanel.setBoard(board); //repaints only the squares that changed
+    	updateNumberButtons(); //the peer may have started a game of another size
+    	if(!wasSolved && board.isSolved()) {
+    		try {
+    			checkWin();
+    		} catch (IOException e) {
+    			e.printStackTrace();
+    		}
+    	}
+    }
+    
     public int selectPort()
     { 	
     	JFrame frame = new JFrame();
@@ -313,6 +283,14 @@ public class SudokuDialog extends JFrame {
     }
     
     public void wirelessStart() throws IOException, Exception {
+    	if(session != null) {
+    		showMessage("Already connected");
+    		return;
+    	}
+    	if(hosting != null) {
+    		showMessage("Already waiting for a player");
+    		return;
+    	}
     	//First lets see if a user would like to host or connect to 
     	int port = 8000;
     	String host_ip;
@@ -324,23 +302,18 @@ public class SudokuDialog extends JFrame {
     			try {
     				if (tries <= 0){
 	    				JOptionPane.showMessageDialog(null, "Error: out of binding tries","Error Message",JOptionPane.ERROR_MESSAGE);
-	    				break;
+	    				return;
 	    			}
     				tries--;
 		    		port = selectPort();
 		    		JOptionPane.showMessageDialog(null, "Server on port: " + Integer.toString(port) + " and IP: " + serverIP + "\nClick OK to start server","Server Message",JOptionPane.INFORMATION_MESSAGE);	  
-		    		servMain = new Server(boardPanel, port);    		
+		    		hosting = new ServerSocket(port);
 		    		break;
 	    		}catch (BindException e){
 	    			JOptionPane.showMessageDialog(null, "Error: port already in use","Error Message",JOptionPane.ERROR_MESSAGE);
 	    		}
     		}
-    		isServer = true;
-    		servMain.setBoard(board);
-    		servMain.sendBoard(board.boardInputs);
-    		servMain.sendBoard(board.solvedPuzzle);
-    		servMain.start();
-    		JOptionPane.showMessageDialog(null, "Connection Successfully Established!" ,"Server Message",JOptionPane.INFORMATION_MESSAGE);
+    		waitForPeer(hosting);
     	}else {
     	   //ChatDialogUI cdUI = new ChatDialogUI();
     	   //cdUI.setVisible(true);
@@ -348,13 +321,13 @@ public class SudokuDialog extends JFrame {
     		while (true) {
     			if (tries <= 0){
     				JOptionPane.showMessageDialog(null, "Error: out of connection tries","Error Message",JOptionPane.ERROR_MESSAGE);
-    				break;
+    				return;
     			}
 				tries--;
 	    		port = selectPort();
 	    		host_ip = selectIP();
 	    		try {
-	    			clientMain = new Client(boardPanel, host_ip, port);
+	    			session = GameSession.join(host_ip, port, new PeerListener(), game); //the board comes in the join_ack
 	    			break;
 	    		}catch(ConnectException e){
 	    			JOptionPane.showMessageDialog(null, "Error: connection refused","Error Message",JOptionPane.ERROR_MESSAGE);
@@ -362,31 +335,103 @@ public class SudokuDialog extends JFrame {
 	    			JOptionPane.showMessageDialog(null, "Error: unknown host: \"" + host_ip + "\"","Error Message",JOptionPane.ERROR_MESSAGE);
 	    		}
     		}
-    		isClient = true;
-    		int[][] bI = clientMain.getBoard();
-    		int[][] solution = clientMain.getBoard();
-    		initializeBoard(bI, solution);
-    		boardPanel.setBoard(board);
-    		clientMain.setBoard(board);
-    		repaint();
-    		clientMain.start();
     	}   
     }
 
-	private void initializeBoard(int[][] bI, int[][] solution){
-    	board = new Board(bI.length);
-    	board.boardInputs = bI;
-    	board.solvedPuzzle = solution;
-    	for(int i = 0; i<board.boardInputs.length; i++) {
-			for(int j = 0; j<board.boardInputs.length; j++) {
-				if(board.boardInputs[i][j] != 0)
-					board.boardGenerated[i][j] = true;
-				else
-					board.boardGenerated[i][j] = false;
-			}
-		}
+    /**
+     * Wait for the other player to connect to the given server socket on a
+     * background thread, showing a dialog with which the user can stop
+     * waiting. The session is set on the event thread once connected.
+     */
+    private void waitForPeer(ServerSocket server) {
+    	JOptionPane pane = new JOptionPane("Waiting for the other player...", JOptionPane.INFORMATION_MESSAGE,
+    			JOptionPane.DEFAULT_OPTION, null, new Object[] { "Cancel" });
+    	JDialog waiting = pane.createDialog(this, "Server Message");
+    	waiting.setModal(false);
+    	pane.addPropertyChangeListener(JOptionPane.VALUE_PROPERTY, e -> {
+    		if(hosting == server)
+    			stopHosting(); //cancelled or closed by the user
+    	});
+    	waiting.setVisible(true);
+    	Thread thread = new Thread(() -> {
+    		try {
+    			CompletableFuture<Board> shared = new CompletableFuture<>();
+    			game.apply(shared::complete); //the board, once the moves made so far are on it
+    			GameSession s = GameSession.host(server, shared.join(), new PeerListener(), game);
+    			SwingUtilities.invokeLater(() -> {
+    				if(hosting != server) {
+    					s.close(); //cancelled just as the player connected
+    					return;
+    				}
+    				hosting = null;
+    				waiting.dispose();
+    				session = s;
+    				JOptionPane.showMessageDialog(null, "Connection Successfully Established!" ,"Server Message",JOptionPane.INFORMATION_MESSAGE);
+    			});
+    		} catch (IOException e) {
+    			SwingUtilities.invokeLater(() -> {
+    				if(hosting != server)
+    					return; //cancelled
+    				hosting = null;
+    				waiting.dispose();
+    				showMessage("Error: no player connected: " + e.getMessage());
+    			});
+    		}
+    	}, "Host");
+    	thread.setDaemon(true);
+    	thread.start();
     }
-    
+
+    /** Stop waiting for the other player of a hosted game, if waiting. */
+    private void stopHosting() {
+    	ServerSocket server = hosting;
+    	hosting = null;
+    	if(server != null) {
+    		try {
+    			server.close(); //fails the accept of the waiting thread
+    		} catch (IOException e) {
+    			System.out.println("Error closing server: " + e.getMessage());
+    		}
+    	}
+    }
+
+    /** 
+     * Takes the changes made by the other player of a shared game to the game
+     * loop, which owns the board, and asks the user on the event thread.
+     */
+    private class PeerListener implements GameSession.Listener {
+    	
+    	public void boardReplaced(Board b) {
+    		game.replace(b);
+    		SwingUtilities.invokeLater(() -> {
+    			place.clear(); //the moves were made on the old board
+    			removed.clear();
+    			boardPanel.setX_y(-1);
+    		});
+    	}
+    	
+    	public void boardChanged() {
+    		//shown with the next snapshot of the board
+    	}
+    	
+    	public boolean newGameRequested(int size) {
+    		int[] reply = new int[1];
+    		try {
+    			SwingUtilities.invokeAndWait(() -> reply[0] = JOptionPane.showConfirmDialog(SudokuDialog.this, "Request for new " + size + "x" + size + " game, accept?"));
+    		} catch (InterruptedException | InvocationTargetException e) {
+    			return false;
+    		}
+    		return reply[0] == JOptionPane.YES_OPTION;
+    	}
+    	
+    	public void disconnected(String reason) {
+    		SwingUtilities.invokeLater(() -> {
+    			session = null;
+    			showMessage(reason);
+    		});
+    	}
+    }
+
     /**This will help to determine if a user wants to connect to the server or just a chat dialog. */
     private boolean verifyHost() {
        JFrame frame = new JFrame();
@@ -407,21 +452,10 @@ public class SudokuDialog extends JFrame {
 			int reply = JOptionPane.showConfirmDialog(null, "Congratulations!!!\nStart a New Game?");
 			if (reply == JOptionPane.YES_OPTION)
 		    {
-<<<<<<< HEAD
 				newClicked(board.size);
 //				board = new Board(board.size); //keeps the same size of current board
 //		        boardPanel.setBoard(board); //makes the board panel use a new board
 //		        repaint();
-=======
-				//board = new Board(board.size); //keeps the same size of current board
-		        //boardPanel.setBoard(board); //makes the board panel use a new board
-		        //repaint();
-				try {
-					newClicked(board.size); 
-				}catch(Exception e) {
-					System.out.println("Error"); 
-				}
->>>>>>> b485d3303fd6586d11b717e9685caf2a0d286fa2
 		    }
 		}
     }
@@ -444,52 +478,28 @@ public class SudokuDialog extends JFrame {
     		      return;
     		    }
     		}
-    		if(isServer && servMain.isServer) {
-    			//sendSolution(1);
-    			String[] s = {"new"};
-    			servMain.sendMessage(s);
-<<<<<<< HEAD
-    			if(servMain.newGameDeclined) {
-    				isServer = false;
-=======
-    			if(servMain.newGameDeclined)
-    				
->>>>>>> b485d3303fd6586d11b717e9685caf2a0d286fa2
-    				return;
-    			}
-    			//clear out the board and add a new board of the requested size
-        		boardPanel.removeAll();
-        		board = new Board(size);
-        		boardPanel.setBoard(board);
-    			servMain.sendBoard(board.boardInputs);
-        		servMain.sendBoard(board.solvedPuzzle); 
-    		}
-    		else if(isClient && clientMain.isClient) {
-    			//sendSolution(2);
-    			String[] s = {"new"};
-    			clientMain.sendMessage(s);
-    			if(clientMain.newGameDeclined) {
-    				isClient = false;
+    		//clear out the board and add a new board of the requested size
+    		boardPanel.removeAll();
+    		boardPanel.setX_y(-1);
+    		CompletableFuture<Board> next = puzzlePool.takeAsync(size);
+    		boolean waiting = !next.isDone();
+    		if(waiting)
+    			showMessage("Making a new puzzle..."); //none ready, e.g., after many 25x25 games in a row
+    		//handed to the game loop from the pool's thread once generated, never waited for here
+    		next.whenComplete((newBoard, e) -> {
+    			if(e != null) {
+    				SwingUtilities.invokeLater(() -> showMessage("Could not make a new puzzle"));
     				return;
     			}
-    			//clear out the board and add a new board of the requested size
-        		boardPanel.removeAll();
-        		board = new Board(size);
-        		boardPanel.setBoard(board);
-    			clientMain.sendBoard(board.boardInputs);
-        		clientMain.sendBoard(board.solvedPuzzle);
-    		}
-    		else {
-    			boardPanel.removeAll();
-        		board = new Board(size);
-        		boardPanel.setBoard(board);
-    		}
-        //These two commented out will enable it to show less buttons when a new game is selected, 
-        // however the screen when a new game is made will be blanked until you try to widen or shrink the screen 
-        //then it will show up properly. 
-        //removeCurButtons();
-        //configureUI();
-        repaint();
+    			game.replace(newBoard); //shown, with the number buttons of the new size, once replaced
+    			game.execute(() -> {
+    				GameSession s = session;
+    				if(s != null)
+    					s.newGame(newBoard); //the peer either accepts it or leaves
+    			});
+    			if(waiting)
+    				SwingUtilities.invokeLater(() -> showMessage(""));
+    		});
     }
     
     /**
@@ -525,23 +535,31 @@ public class SudokuDialog extends JFrame {
     /** Determines what size of board the user will play with*/
     private int verifySize() {
         JFrame frame = new JFrame();
-        String[] options = new String[2];
-        options[0] = new String("4x4");
-        options[1] = new String("9x9");
+        int[] sizes = {4, 9, 16, 25};
+        String[] options = new String[sizes.length];
+        for(int i = 0; i<sizes.length; i++) {
+           options[i] = sizes[i] + "x" + sizes[i];
+        }
         int opt = JOptionPane.showOptionDialog(frame.getContentPane(),"Please select what size of board","New Game!", 0,JOptionPane.YES_NO_OPTION,null,options,null);
-        if(opt == JOptionPane.YES_OPTION){
-           return 4;
+        if(opt >= 0){
+           return sizes[opt];
         }else{
            return 9;
         }
 
      }
 
-    /** Create a control panel consisting of new and number buttons. */
-    private JPanel makeControlPanel() {
-    	
-    	// buttons labeled 1, 2, ..., 9, and X.
-    	JPanel numberButtons = new JPanel(new FlowLayout());
+    /** 
+     * Add buttons labeled 1, 2, ..., size, and X for the current board, 
+     * if the buttons were made for a board of a different size.
+     */
+    private void updateNumberButtons() {
+    	if(numberButtonsSize == board.size())
+    		return;
+    	numberButtonsSize = board.size();
+    	numberButtons.removeAll();
+    	// big boards get rows of buttons instead of one long row
+    	numberButtons.setLayout(board.size() > 9 ? new GridLayout(0, 2*board.boxSize()) : new FlowLayout());
     	int maxNumber = board.size() + 1;
     	for (int i = 1; i <= maxNumber; i++) {
             int number = i % maxNumber;
@@ -556,11 +574,19 @@ public class SudokuDialog extends JFrame {
 					e1.printStackTrace();
 				}
 			});
-            if(i <= board.size || i == maxNumber) {
-               numberButtons.add(button);
-            }
+            numberButtons.add(button);
     	}
-;
+    	if(board.size() > 9 && getWidth() < BIG_BOARD_SIZE.width) {
+    		setSize(BIG_BOARD_SIZE);
+    	}
+    	numberButtons.revalidate();
+    	numberButtons.repaint();
+    }
+
+    /** Create a control panel consisting of new and number buttons. */
+    private JPanel makeControlPanel() {
+    	
+    	updateNumberButtons();
 
 
 
@@ -842,20 +868,6 @@ public class SudokuDialog extends JFrame {
         return content;
     }
     	
-    void sendSolution(int choice) throws IOException {
-    	for(int i = 0; i<board.size; i++) {
-    		for(int j = 0; j<board.size; j++) {
-    			String[] move = {Integer.toString(i), Integer.toString(j), Integer.toString(board.boardInputs[i][j])};
-    			if(isServer && servMain.isServer) {
-    				servMain.sendMessage(move);
-    			}
-    			else if(isClient && clientMain.isClient) {
-    				clientMain.sendMessage(move);
-    			}
-    		}
-    	}
-    }
-
     
     //handles when a tool bar button is pressed
     public void buttonPressed(int choice) throws IOException {
@@ -863,41 +875,24 @@ public class SudokuDialog extends JFrame {
     	{
     	case 1:  newClicked(board.size());
         	break;
-    	case 2:  board.solve();
-    		repaint();
-    		if(isServer && servMain.isServer) {
-    			//sendSolution(1);
-    			String[] s = {"solve"};
-    			servMain.sendMessage(s);
-    		checkWin();
-    		
-    		}
-    		else if(isClient && clientMain.isClient) {
-    			//sendSolution(2);
-    			String[] s = {"solve"};
-    			clientMain.sendMessage(s);
-    			checkWin();
-    		}
+    	case 2:  game.apply(b -> {
+    			b.solve();
+    			sendChanges(); //the squares the peer doesn't have yet
+    		});
         	break;
-    	case 3:  errors = board.check();
-    		boardPanel.setErrors(errors);
-    		if(errors.size() == 0)
-    			showMessage("No Errors Found!");
-    		if(isServer && servMain.isServer) {
-    			//sendSolution(1);
-    			String[] s = {"check"};
-    			servMain.sendMessage(s);
-    		}
-    		else if(isClient && clientMain.isClient) {
-    			//sendSolution(2);
-    			String[] s = {"check"};
-    			clientMain.sendMessage(s);
-    		}
+    	case 3:  game.apply(b -> {
+    			SquareSet found = b.check().copy(); //may solve the puzzle, so on the game loop
+    			SwingUtilities.invokeLater(() -> {
+    				errors = found;
+    				boardPanel.setErrors(found);
+    				if(found.isEmpty())
+    					showMessage("No Errors Found!");
+    			});
+    		});
         	break;
     	default:
     		break;
     	}
-    	repaint();
     	checkWin();
     }
 
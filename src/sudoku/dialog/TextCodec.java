@@ -0,0 +1,359 @@
+package sudoku.dialog;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import sudoku.dialog.NetworkAdapter.MessageListener;
+import sudoku.dialog.NetworkAdapter.MessageType;
+
+/**
+ * Encodes and decodes the text messages of the protocol documented in
+ * {@link NetworkAdapter}. Each message is one line of text ended by the
+ * end-of-line character, e.g., "fill:1,2,3". This class has no state,
+ * so one instance can be shared by any number of connections.
+ *
+ * <pre>
+ *  String msg = MessageCodec.TEXT.format(MessageType.FILL, 1, 2, 3, null); // "fill:1,2,3"
+ *  ByteBuffer bytes = MessageCodec.TEXT.encode(MessageType.FILL, 1, 2, 3, null);
+ *  MessageCodec.TEXT.decode(bytes, listener); // listener gets FILL, 1, 2, 3
+ * </pre>
+ *
+ * @see MessageCodec
+ */
+public class TextCodec implements MessageCodec {
+
+    private static final int[] EMPTY_INT_ARRAY = new int[0];
+
+    /** Types of the messages, those with a header. */
+    private static final MessageType[] MESSAGE_TYPES = {
+        MessageType.QUIT, MessageType.JOIN, MessageType.JOIN_ACK, MessageType.NEW,
+        MessageType.NEW_ACK, MessageType.FILL, MessageType.FILL_ACK, MessageType.CREATE,
+        MessageType.CREATE_ACK, MessageType.LIST, MessageType.LIST_ACK, MessageType.RESUME,
+        MessageType.RESUME_ACK
+    };
+
+    @Override
+    public ByteBuffer encode(MessageType type, int x, int y, int z, int[] others) {
+        return ByteBuffer.wrap((format(type, x, y, z, others) + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public boolean decode(ByteBuffer in, MessageListener listener) {
+        // scan the bytes of the buffer in place, or a copy of a direct buffer
+        byte[] bytes;
+        int offset;
+        if (in.hasArray()) {
+            bytes = in.array();
+            offset = in.arrayOffset();
+        } else {
+            bytes = new byte[in.remaining()];
+            in.duplicate().get(bytes);
+            offset = -in.position();
+        }
+        int start = offset + in.position();
+        for (int i = start; i < offset + in.limit(); i++) {
+            if (bytes[i] == '\n') {
+                int end = i > start && bytes[i - 1] == '\r' ? i - 1 : i;
+                in.position(i + 1 - offset);
+                decode(bytes, start, end, listener);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the given message as a line of text without the end-of-line
+     * character. Others may be null if the message has no other arguments.
+     *
+     * @throws IllegalArgumentException If the type is not a message, e.g., CLOSE.
+     */
+    public String format(MessageType type, int x, int y, int z, int[] others) {
+        StringBuilder builder = new StringBuilder(type.header() == null ? "" : type.header());
+        switch (type) {
+        case QUIT:
+        case LIST:
+            break;
+        case JOIN:
+            // join: [r [,c]]
+            if (x != 0 || y != 0) {
+                builder.append(x);
+            }
+            if (y != 0) {
+                builder.append(',').append(y);
+            }
+            break;
+        case JOIN_ACK:
+            if (x == 0) {
+                builder.append(0);
+            } else {
+                builder.append("1,").append(y);
+                append(builder, others);
+            }
+            break;
+        case NEW:
+            builder.append(x);
+            append(builder, others);
+            break;
+        case NEW_ACK:
+            builder.append(x == 0 ? 0 : 1);
+            break;
+        case FILL:
+        case FILL_ACK:
+            // fill: x,y,v [,q]
+            builder.append(x).append(',').append(y).append(',').append(z);
+            append(builder, others);
+            break;
+        case CREATE:
+            // create: s [,c]
+            builder.append(x);
+            if (y != 0) {
+                builder.append(',').append(y);
+            }
+            break;
+        case CREATE_ACK:
+            if (x == 0) {
+                builder.append(0);
+            } else {
+                builder.append("1,").append(y);
+            }
+            break;
+        case RESUME:
+            // resume: r,q [,t]
+            builder.append(x).append(',').append(y);
+            if (z != 0) {
+                builder.append(',').append(z);
+            }
+            break;
+        case RESUME_ACK:
+            if (x == 0) {
+                builder.append(0);
+            } else {
+                builder.append("1,").append(y).append(',').append(z);
+                append(builder, others);
+            }
+            break;
+        case LIST_ACK:
+            append(builder, others);
+            if (others != null && others.length > 0) {
+                builder.deleteCharAt(type.header().length()); // the first ','
+            }
+            break;
+        default:
+            throw new IllegalArgumentException("Not a message: " + type);
+        }
+        return builder.toString();
+    }
+
+    /** Append each of the given numbers, if any, after a ",". */
+    private static void append(StringBuilder builder, int[] values) {
+        if (values != null) {
+            for (int v: values) {
+                builder.append(',').append(v);
+            }
+        }
+    }
+
+    /**
+     * Parse the message in the given bytes, from start to end, and notify it
+     * to the given listener. The bytes are scanned in place, without making
+     * strings of the message or its fields; the only array made is that of
+     * the other arguments of a message that has them, e.g., a board, as it
+     * is handed to the listener.
+     */
+    private void decode(byte[] in, int start, int end, MessageListener listener) {
+        int colon = indexOf(in, start, end, ':');
+        MessageType type = colon < 0 ? MessageType.UNKNOWN : type(in, start, colon + 1);
+        int body = colon + 1;
+        int n = type == MessageType.UNKNOWN ? 0 : countFields(in, body, end);
+
+        // the first fields go to x, y and z, and the rest to others
+        int leading;
+        switch (type) {
+        case NEW:
+        case NEW_ACK:
+            leading = 1;
+            break;
+        case FILL:
+        case FILL_ACK:
+        case RESUME:
+        case RESUME_ACK:
+            leading = 3;
+            break;
+        case LIST_ACK:
+            leading = 0;
+            break;
+        default:
+            leading = 2;
+            break;
+        }
+        boolean hasOthers = type == MessageType.JOIN_ACK || type == MessageType.NEW
+                || type == MessageType.LIST_ACK || type == MessageType.FILL || type == MessageType.FILL_ACK
+                || type == MessageType.RESUME_ACK;
+        int[] others = hasOthers && n > leading ? new int[n - leading] : EMPTY_INT_ARRAY;
+        int f0 = 0, f1 = 0, f2 = 0;
+        int pos = body;
+        for (int i = 0; i < n; i++) {
+            int comma = indexOf(in, pos, end, ',');
+            if (comma < 0) {
+                comma = end;
+            }
+            int v = parseInt(in, pos, comma);
+            if (i == 0 && leading > 0) {
+                f0 = v;
+            } else if (i == 1 && leading > 1) {
+                f1 = v;
+            } else if (i == 2 && leading > 2) {
+                f2 = v;
+            } else if (i - leading < others.length) {
+                others[i - leading] = v;
+            }
+            pos = comma + 1;
+        }
+
+        switch (type) {
+        case QUIT:
+        case LIST:
+            notifyMessage(listener, type);
+            break;
+        case JOIN:
+        case CREATE:
+        case RESUME:
+            // join: [r [,c]], create: s [,c] and resume: r,q [,t]
+            listener.messageReceived(type, f0, f1, f2, EMPTY_INT_ARRAY);
+            break;
+        case JOIN_ACK:
+            // join_ack: 0 or join_ack: 1, size, squares
+            if (n >= 1 && f0 == 0) {
+                notifyMessage(listener, type);
+            } else if (n >= 2 && f0 == 1 && f1 > 0) {
+                listener.messageReceived(type, 1, f1, 0, others);
+            } else {
+                notifyMessage(listener, MessageType.UNKNOWN);
+            }
+            break;
+        case NEW:
+            // new: size, squares
+            if (n >= 1 && f0 > 0) {
+                listener.messageReceived(type, f0, 0, 0, others);
+            } else {
+                notifyMessage(listener, MessageType.UNKNOWN);
+            }
+            break;
+        case NEW_ACK:
+            listener.messageReceived(type, n >= 1 && f0 == 0 ? 0 : 1, 0, 0, EMPTY_INT_ARRAY);
+            break;
+        case FILL:
+        case FILL_ACK:
+            // fill: x,y,v [,q]
+            if (n >= 3) {
+                listener.messageReceived(type, f0, f1, f2, others);
+            } else {
+                notifyMessage(listener, MessageType.UNKNOWN);
+            }
+            break;
+        case RESUME_ACK:
+            // resume_ack: 0 or resume_ack: 1, room, sequence [,token]
+            if (n >= 1 && f0 == 0) {
+                notifyMessage(listener, type);
+            } else if (n >= 3 && f0 == 1) {
+                listener.messageReceived(type, 1, f1, f2, others);
+            } else {
+                notifyMessage(listener, MessageType.UNKNOWN);
+            }
+            break;
+        case CREATE_ACK:
+            // create_ack: 0 or create_ack: 1, room
+            if (n >= 1 && f0 == 0) {
+                notifyMessage(listener, type);
+            } else if (n >= 2 && f0 == 1) {
+                listener.messageReceived(type, 1, f1, 0, EMPTY_INT_ARRAY);
+            } else {
+                notifyMessage(listener, MessageType.UNKNOWN);
+            }
+            break;
+        case LIST_ACK:
+            listener.messageReceived(type, 0, 0, 0, others);
+            break;
+        default:
+            notifyMessage(listener, MessageType.UNKNOWN);
+            break;
+        }
+    }
+
+    /** Return the type of the message whose header is in the given bytes, or UNKNOWN. */
+    private static MessageType type(byte[] in, int start, int end) {
+        for (MessageType type : MESSAGE_TYPES) {
+            String header = type.header();
+            if (header.length() == end - start) {
+                int i = 0;
+                while (i < header.length() && in[start + i] == header.charAt(i)) {
+                    i++;
+                }
+                if (i == header.length()) {
+                    return type;
+                }
+            }
+        }
+        return MessageType.UNKNOWN;
+    }
+
+    /** Return the index of the given byte from start to end, or -1 if there is none. */
+    private static int indexOf(byte[] in, int start, int end, char c) {
+        for (int i = start; i < end; i++) {
+            if (in[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the number of comma-separated fields from start to end; a blank body has none. */
+    private static int countFields(byte[] in, int start, int end) {
+        int n = 1;
+        boolean blank = true;
+        for (int i = start; i < end; i++) {
+            byte b = in[i];
+            if (b == ',') {
+                n++;
+            } else if (b != ' ') {
+                blank = false;
+            }
+        }
+        return blank && n == 1 ? 0 : n;
+    }
+
+    /**
+     * Parse the bytes from start to end as an int, ignoring spaces around
+     * it; return -1 if they are not a well-formed int.
+     */
+    private static int parseInt(byte[] in, int start, int end) {
+        while (start < end && in[start] == ' ') {
+            start++;
+        }
+        while (end > start && in[end - 1] == ' ') {
+            end--;
+        }
+        boolean negative = start < end && in[start] == '-';
+        if (negative) {
+            start++;
+        }
+        if (start == end || end - start > 9) {
+            return -1; // empty, or may not fit in an int
+        }
+        int v = 0;
+        for (int i = start; i < end; i++) {
+            int d = in[i] - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            v = v * 10 + d;
+        }
+        return negative ? -v : v;
+    }
+
+    /** Notify the given listener the receipt of the given message type. */
+    private void notifyMessage(MessageListener listener, MessageType type) {
+        listener.messageReceived(type, 0, 0, 0, EMPTY_INT_ARRAY);
+    }
+}
@@ -0,0 +1,272 @@
+package sudoku.dialog;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import sudoku.dialog.NetworkAdapter.MessageListener;
+import sudoku.dialog.NetworkAdapter.MessageType;
+import sudoku.model.Board;
+
+/**
+ * Compares parsing text messages the old way, making a string of each line
+ * and splitting it, with {@link TextCodec}, which scans the bytes of a line
+ * in place. For a fill message and a join_ack message with a whole 9x9 and
+ * 25x25 board it prints the average time and bytes allocated per message.
+ * Allocation is measured per thread and shown as -1 where the Java runtime
+ * doesn't support it.
+ *
+ * <pre>
+ *  java sudoku.dialog.TextCodecBenchmark [rounds]
+ * </pre>
+ */
+public class TextCodecBenchmark {
+
+    /** Sum of the arguments of the messages parsed, so they can't be optimized away. */
+    private static long sink;
+
+    private static final MessageListener LISTENER = new MessageListener() {
+        @Override
+        public void messageReceived(MessageType type, int x, int y, int z, int[] others) {
+            sink += type.ordinal() + x + y + z + others.length;
+        }
+    };
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        OldParser oldParser = new OldParser();
+        System.out.println("message      parser  ns/msg  bytes/msg");
+        for (int size : new int[] { 0, 9, 25 }) {
+            String name;
+            ByteBuffer msg;
+            if (size == 0) {
+                name = "fill";
+                msg = MessageCodec.TEXT.encode(MessageType.FILL, 3, 4, 5, null);
+            } else {
+                name = "join_ack " + size;
+                msg = MessageCodec.TEXT.encode(MessageType.JOIN_ACK, 1, size, 0, squares(new Board(size)));
+            }
+            int n = size == 0 ? rounds : rounds / size;
+            for (int pass = 0; pass < 2; pass++) { // the first pass warms up
+                for (boolean scan : new boolean[] { false, true }) {
+                    long bytes = allocatedBytes();
+                    long start = System.nanoTime();
+                    for (int i = 0; i < n; i++) {
+                        msg.rewind();
+                        if (scan) {
+                            MessageCodec.TEXT.decode(msg, LISTENER);
+                        } else {
+                            // as read by a BufferedReader, a string of the line without the end of line
+                            String line = new String(msg.array(), 0, msg.limit() - 1, StandardCharsets.UTF_8);
+                            oldParser.decode(line, LISTENER);
+                        }
+                    }
+                    long time = System.nanoTime() - start;
+                    bytes = bytes < 0 ? -1 : (allocatedBytes() - bytes) / n;
+                    if (pass > 0) {
+                        System.out.printf("%-11s  %-6s  %6d  %9d%n", name, scan ? "scan" : "split",
+                                time / n, bytes);
+                    }
+                }
+            }
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    /** Return the non-empty squares of the solution of a puzzle of the given size, as in join_ack messages. */
+    private static int[] squares(Board board) {
+        int[][] solution = board.getSolution();
+        int size = board.size;
+        int[] squares = new int[4 * size * size];
+        int k = 0;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                squares[k++] = x;
+                squares[k++] = y;
+                squares[k++] = solution[y][x];
+                squares[k++] = board.isGiven(y, x) ? 1 : 0;
+            }
+        }
+        return squares;
+    }
+
+    /** Return the bytes allocated by this thread so far, or -1 if unknown. */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /** The old parser: a string per line, split on commas, a string per field. */
+    private static class OldParser {
+
+        private static final int[] EMPTY_INT_ARRAY = new int[0];
+
+        /** Parse the given message and notify it to the given listener. */
+        public void decode(String msg, MessageListener listener) {
+            if (msg.startsWith(MessageType.QUIT.header())) {
+                notifyMessage(listener, MessageType.QUIT);
+            } else if (msg.startsWith(MessageType.JOIN_ACK.header())) {
+                parseJoinAckMessage(msgBody(msg), listener);
+            } else if (msg.startsWith(MessageType.JOIN.header())) {
+                parseCodecMessage(MessageType.JOIN, msgBody(msg), listener);
+            } else if (msg.startsWith(MessageType.NEW_ACK.header())) {
+                parseNewAckMessage(msgBody(msg), listener);
+            } else if (msg.startsWith(MessageType.NEW.header())) {
+                parseNewMessage(msgBody(msg), listener);
+            } else if (msg.startsWith(MessageType.FILL_ACK.header())) {
+                parseFillMessage(MessageType.FILL_ACK, msgBody(msg), listener);
+            } else if (msg.startsWith(MessageType.FILL.header())){
+                parseFillMessage(MessageType.FILL, msgBody(msg), listener);
+            } else if (msg.startsWith(MessageType.CREATE_ACK.header())) {
+                parseCreateAckMessage(msgBody(msg), listener);
+            } else if (msg.startsWith(MessageType.CREATE.header())) {
+                parseCodecMessage(MessageType.CREATE, msgBody(msg), listener);
+            } else if (msg.startsWith(MessageType.LIST_ACK.header())) {
+                listener.messageReceived(MessageType.LIST_ACK, 0, 0, 0, parseInts(msgBody(msg)));
+            } else if (msg.startsWith(MessageType.LIST.header())) {
+                notifyMessage(listener, MessageType.LIST);
+            } else {
+                notifyMessage(listener, MessageType.UNKNOWN);
+            }
+        }
+
+        /** Parse and return the body of the given message. */
+        private String msgBody(String msg) {
+            int i = msg.indexOf(':');
+            if (i > -1) {
+                msg = msg.substring(i + 1);
+            }
+            return msg;
+        }
+
+        /**
+         * Parse and notify the given join or create message body: a room id or
+         * board size, and the codec asked for, 1 for binary; both are 0 if omitted.
+         */
+        private void parseCodecMessage(MessageType type, String msgBody, MessageListener listener) {
+            int[] parts = parseInts(msgBody);
+            int x = parts.length > 0 ? parts[0] : 0;
+            int codec = parts.length > 1 ? parts[1] : 0;
+            listener.messageReceived(type, x, codec, 0, EMPTY_INT_ARRAY);
+        }
+
+        /** Parse and notify the given create_ack message body. */
+        private void parseCreateAckMessage(String msgBody, MessageListener listener) {
+            String[] parts = msgBody.split(",");
+            int response = parseInt(parts[0].trim());
+            if (response == 0) {
+                listener.messageReceived(MessageType.CREATE_ACK, 0, 0, 0, EMPTY_INT_ARRAY);
+            } else if (response == 1 && parts.length >= 2) {
+                int room = parseInt(parts[1].trim());
+                listener.messageReceived(MessageType.CREATE_ACK, 1, room, 0, EMPTY_INT_ARRAY);
+            } else {
+                notifyMessage(listener, MessageType.UNKNOWN);
+            }
+        }
+
+        /** Parse the given comma-separated numbers; an empty body has none. */
+        private int[] parseInts(String msgBody) {
+            if (msgBody.trim().isEmpty()) {
+                return EMPTY_INT_ARRAY;
+            }
+            String[] parts = msgBody.split(",");
+            int[] values = new int[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                values[i] = parseInt(parts[i].trim());
+            }
+            return values;
+        }
+
+        /** Parse and notify the given join_ack message body. */
+        private void parseJoinAckMessage(String msgBody, MessageListener listener) {
+            String[] parts = msgBody.split(",");
+            if (parts.length >= 1) {
+                // message: join_ack 0
+                int response = parseInt(parts[0].trim());
+                if (response == 0) {
+                    listener.messageReceived(MessageType.JOIN_ACK, 0, 0, 0, EMPTY_INT_ARRAY);
+                    return;
+                }
+                if (response == 1 && parts.length >= 2) {
+                    // message: join_ack 1 size squares
+                    int size = parseInt(parts[1].trim());
+                    if (size > 0) {
+                        int[] others = new int[parts.length - 2];
+                        for (int i = 2; i < parts.length; i++) {
+                            others[i-2] = parseInt(parts[i]);
+                        }
+                        listener.messageReceived(MessageType.JOIN_ACK, 1, size, 0, others);
+                        return;
+                    }
+                }
+            }
+            notifyMessage(listener, MessageType.UNKNOWN);
+        }
+
+        /** Parse and notify the given new_ack message body. */
+        private void parseNewAckMessage(String msgBody, MessageListener listener) {
+            String[] parts = msgBody.split(",");
+            if (parts.length >= 1) {
+                // message: new_ack response
+                int response = parseInt(parts[0].trim());
+                response = response == 0 ? 0 : 1;
+                listener.messageReceived(MessageType.NEW_ACK, response, 0, 0, EMPTY_INT_ARRAY);
+                return;
+            }
+            notifyMessage(listener, MessageType.UNKNOWN);
+        }
+
+        /** Parse and notify the given new message body. */
+        private void parseNewMessage(String msgBody, MessageListener listener) {
+            String[] parts = msgBody.split(",");
+            if (parts.length >= 1) {
+                // message: new size squares
+                int size = parseInt(parts[0].trim());
+                if (size > 0) {
+                    int[] others = new int[parts.length - 1];
+                    for (int i = 1; i < parts.length; i++) {
+                        others[i-1] = parseInt(parts[i]);
+                    }
+                    listener.messageReceived(MessageType.NEW, size, 0, 0, others);
+                    return;
+                }
+            }
+            notifyMessage(listener, MessageType.UNKNOWN);
+        }
+
+        /**
+         * Parse the given string as an int; return -1 if the input
+         * is not well-formed.
+         */
+        private int parseInt(String txt) {
+            try {
+                return Integer.parseInt(txt);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        /** Parse and notify the given fill or fill_ack message. */
+        private void parseFillMessage(MessageType type, String msgBody, MessageListener listener) {
+            String[] parts = msgBody.split(",");
+            if (parts.length >= 3) {
+                int x = parseInt(parts[0].trim());
+                int y = parseInt(parts[1].trim());
+                int v = parseInt(parts[2].trim());
+                listener.messageReceived(type, x, y, v, EMPTY_INT_ARRAY);
+            } else {
+                notifyMessage(listener, MessageType.UNKNOWN);
+            }
+        }
+
+        /** Notify the given listener the receipt of the given message type. */
+        private void notifyMessage(MessageListener listener, MessageType type) {
+            listener.messageReceived(type, 0, 0, 0, EMPTY_INT_ARRAY);
+        }
+    }
+}
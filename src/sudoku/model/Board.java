@@ -11,40 +11,100 @@ size, and if it has been solved. Accessed by main to get information
 
 package sudoku.model;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.IOException;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Random;
 
 
 /** An abstraction of Sudoku puzzle. */
 public class Board {
 	private int numEmpty; //used to count number of empty squares left. when 0, the board is solved	
-	public int[][] solvedPuzzle; //stores the solution of the current puzzle
-	public int[][] boardInputs; //2D array that keeps track of all the values the user has put into the board
-	public boolean[][] boardGenerated;
-	public String fileName;
-	public int randPuzzle;
-	public int col;
-	public int row;
     /** Size of this board (number of columns/rows). */
     public final int size;
-    FileReader fileReader;
-    BufferedReader bufferedReader;
+    
+    /** Flag of the squares that are part of the puzzle, stored with their values. */
+    private static final int GIVEN = 0x80;
+    /** Mask of the value stored in a square. */
+    private static final int VALUE = 0x7F;
+    
+    /** 
+     * Value of each square in row-major order, i.e., square (x, y) is at
+     * x*size + y, with GIVEN set for the squares that are part of the puzzle.
+     */
+    private final byte[] cells;
+    /** Solution of each square in row-major order, or null if it is not known yet. */
+    private byte[] solution;
+    /** Width and height of a box (sub-square), i.e. the square root of the size. */
+    private final int boxSize;
+    /** Bit v of a mask is set when value v appears in that row, column or box. */
+    private final int[] rowMask;
+    private final int[] colMask;
+    private final int[] boxMask;
+    /** Number of times each value appears in each unit, indexed as unit*(size+1)+value. */
+    private final int[] rowCount;
+    private final int[] colCount;
+    private final int[] boxCount;
+    /** Number of duplicated values over all rows, columns and boxes. */
+    private int numConflicts;
+    /** Used to find the solution of puzzles that came without one. */
+    private Solver solver;
+    /** Bit row*size + column is set for every square whose value differs from the solution. */
+    private final BitSet errors = new BitSet();
+    /** Read-only view of the errors returned by check(). */
+    private final SquareSet errorView;
+    /** Number of changes kept to be sent to other players as deltas. */
+    private static final int HISTORY_SIZE = 64;
+    /** Number of changes made to this board so far; each value set is one change. */
+    private long version;
+    /** Version from which the changes are known; changes before it replaced the whole board. */
+    private long historyStart;
+    /** Last changes, each packed as (x*size + y) << 8 | value, with change v at v % HISTORY_SIZE. */
+    private final int[] history = new int[HISTORY_SIZE];
 
     /** Create a new board of the given size. **/
     public Board(int size){
-        this.size = size;
-		numEmpty = size*size; //there are n^2 squares in the board
+        this(size, null);
 		newPuzzle();
     }
     
+    /** Create a board with the given values; the non-empty squares are the given squares. */
     public Board(int[][] b){
-        this.size = b.length;
-		numEmpty = b.length*b.length; //there are n^2 squares in the board
-		boardInputs = b;
+        this(b.length, b);
+        for(int i = 0; i<cells.length; i++) {
+        	if(cells[i] != 0)
+        		cells[i] |= GIVEN;
+        }
+    }
+    
+    /** Create a copy of the given board. */
+    public Board(Board other){
+        this(other.size, null);
+        copyFrom(other);
+    }
+    
+    /** 
+     * Create a new board with the given puzzle and its solution. The non-empty
+     * squares of the puzzle are the given squares.
+     */
+    public Board(int[][] puzzle, int[][] solution){
+        this(puzzle.length, null);
+        setPuzzle(puzzle, solution);
+    }
+    
+    private Board(int size, int[][] inputs){
+        this.size = size;
+        boxSize = (int) Math.round(Math.sqrt(size));
+        rowMask = new int[size];
+        colMask = new int[size];
+        boxMask = new int[size];
+        rowCount = new int[size*(size+1)];
+        colCount = new int[size*(size+1)];
+        boxCount = new int[size*(size+1)];
+        errorView = new SquareSet(errors, size);
+        cells = new byte[size*size];
+		numEmpty = size*size; //there are n^2 squares in the board
+		if(inputs != null)
+			setInputs(inputs);
     }
 
     /** Return the size of this board. */
@@ -68,11 +128,186 @@ public class Board {
 		numEmpty++;
 	}
 	public void setValue(int x, int y, int val) {
-		if(x>=0 && x<size && y>=0 && y<size)
-			boardInputs[x][y] = val;
+		if(x>=0 && x<size && y>=0 && y<size) {
+			int i = x*size + y;
+			int old = cells[i] & VALUE;
+			remove(x, y, old);
+			cells[i] = (byte) ((cells[i] & GIVEN) | val);
+			add(x, y, val);
+			updateError(x, y);
+			if(old != val)
+				history[(int) (version++ % HISTORY_SIZE)] = i << 8 | val;
+		}
+	}
+	
+	/** Return the number of changes made to this board so far. */
+	public long getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Return the squares changed after the given version, in the order they
+	 * were changed, as tuples of (x, y, v) where v is the new value. Return
+	 * null if the changes are not known anymore, because there were too many
+	 * or the whole board was replaced; the whole board has to be sent then.
+	 */
+	public int[] changesSince(long since) {
+		if(since < Math.max(historyStart, version - HISTORY_SIZE) || since > version)
+			return null;
+		int[] changes = new int[3 * (int) (version - since)];
+		int k = 0;
+		for(long v = since; v < version; v++) {
+			int change = history[(int) (v % HISTORY_SIZE)];
+			changes[k++] = (change >> 8) / size;
+			changes[k++] = (change >> 8) % size;
+			changes[k++] = change & 0xFF;
+		}
+		return changes;
+	}
+	
+	/** Count a change that replaced the whole board, forgetting the earlier changes. */
+	private void replaced() {
+		historyStart = ++version;
 	}
 	public int getValue(int x, int y) {
-		return boardInputs[x][y];
+		return cells[x*size + y] & VALUE;
+	}
+	
+	/** Return the values on the board as a new [row][column] array. */
+	public int[][] getInputs() {
+		int[][] inputs = new int[size][size];
+		for(int i = 0; i<size; i++) {
+			for(int j = 0; j<size; j++) {
+				inputs[i][j] = cells[i*size + j] & VALUE;
+			}
+		}
+		return inputs;
+	}
+	
+	/** 
+	 * Replace all the values on the board, keeping the given squares, rebuild
+	 * the row, column and box masks and recount the empty squares.
+	 */
+	public void setInputs(int[][] inputs) {
+		for(int i = 0; i<size; i++) {
+			for(int j = 0; j<size; j++) {
+				int k = i*size + j;
+				cells[k] = (byte) ((cells[k] & GIVEN) | inputs[i][j]);
+			}
+		}
+		rebuild();
+		replaced();
+	}
+	
+	/** Make this board a copy of the given board of the same size. */
+	public void copyFrom(Board other) {
+		System.arraycopy(other.cells, 0, cells, 0, cells.length);
+		solution = other.solution;
+		rebuild();
+		replaced();
+	}
+	
+	/** Rebuild the masks, the number of empty squares and the errors from the values. */
+	private void rebuild() {
+		numEmpty = 0;
+		Arrays.fill(rowMask, 0);
+		Arrays.fill(colMask, 0);
+		Arrays.fill(boxMask, 0);
+		Arrays.fill(rowCount, 0);
+		Arrays.fill(colCount, 0);
+		Arrays.fill(boxCount, 0);
+		numConflicts = 0;
+		errors.clear();
+		for(int i = 0; i<size; i++) {
+			for(int j = 0; j<size; j++) {
+				int val = cells[i*size + j] & VALUE;
+				add(i, j, val);
+				updateError(i, j);
+				if(val == 0)
+					numEmpty++;
+			}
+		}
+	}
+	
+	/** Return true if the value at row x, column y is part of the puzzle. */
+	public boolean isGiven(int x, int y) {
+		return (cells[x*size + y] & GIVEN) != 0;
+	}
+	
+	/** Make the square at row x, column y part of the puzzle or not. */
+	public void setGiven(int x, int y, boolean given) {
+		int i = x*size + y;
+		cells[i] = (byte) (given ? cells[i] | GIVEN : cells[i] & VALUE);
+	}
+	
+	/** Return the width and height of a box of this board. */
+	public int boxSize() {
+		return boxSize;
+	}
+	
+	/** Return the index of the box that contains row x and column y. */
+	public int box(int x, int y) {
+		return (x/boxSize)*boxSize + y/boxSize;
+	}
+	
+	/** 
+	 * Return true if val can be placed at row x, column y without repeating
+	 * a value already in the same row, column or box. 0 (erasing) is always legal.
+	 */
+	public boolean isLegal(int x, int y, int val) {
+		if(val == 0)
+			return true;
+		if(val < 0 || val > size)
+			return false;
+		return (candidates(x, y) & (1 << val)) != 0;
+	}
+	
+	/**
+	 * Return the values that can be placed at row x, column y as a bit mask,
+	 * where bit v is set if v is a legal value. The value currently in the
+	 * square does not count against itself.
+	 */
+	public int candidates(int x, int y) {
+		int used = rowMask[x] | colMask[y] | boxMask[box(x, y)];
+		int cur = getValue(x, y);
+		if(cur != 0 && rowCount[x*(size+1)+cur] == 1 && colCount[y*(size+1)+cur] == 1
+				&& boxCount[box(x, y)*(size+1)+cur] == 1) {
+			used &= ~(1 << cur);
+		}
+		return ~used & fullMask();
+	}
+	
+	/** Return the number of repeated values over all rows, columns and boxes. */
+	public int conflicts() {
+		return numConflicts;
+	}
+	
+	/** Return the mask with a bit set for every value 1 to size. */
+	private int fullMask() {
+		return ((1 << (size+1)) - 1) & ~1;
+	}
+	
+	/** Record val at row x, column y in the masks. */
+	private void add(int x, int y, int val) {
+		if(val <= 0 || val > size)
+			return;
+		int b = box(x, y);
+		rowMask[x] |= 1 << val;
+		colMask[y] |= 1 << val;
+		boxMask[b] |= 1 << val;
+		if(++rowCount[x*(size+1)+val] > 1) numConflicts++;
+		if(++colCount[y*(size+1)+val] > 1) numConflicts++;
+		if(++boxCount[b*(size+1)+val] > 1) numConflicts++;
+	}
+	
+	/** Forget val at row x, column y in the masks. */
+	private void remove(int x, int y, int val) {
+		if(val <= 0 || val > size)
+			return;
+		int b = box(x, y);
+		if(--rowCount[x*(size+1)+val] > 0) numConflicts--; else rowMask[x] &= ~(1 << val);
+		if(--colCount[y*(size+1)+val] > 0) numConflicts--; else colMask[y] &= ~(1 << val);
+		if(--boxCount[b*(size+1)+val] > 0) numConflicts--; else boxMask[b] &= ~(1 << val);
 	}
 	
 	/** Check if board is solved by checking if every square in the board is filled */
@@ -80,86 +315,151 @@ public class Board {
 		return numEmpty==0;
 	}
 	
+	/** Start a new puzzle with a unique solution, generated without reading any file. */
 	public void newPuzzle(){
-		try {
-			solvedPuzzle = new int[size][size]; //reset the current puzzle
-			boardGenerated = new boolean[size][size];
-			//read in from the appropriate file
-			fileName = "puzzles" + size + ".txt";
-	        fileReader = new FileReader(fileName);
-	        bufferedReader = new BufferedReader(fileReader);
-	        
-	        //pick a random puzzle
-	        Random rand = new Random();
-	        randPuzzle = rand.nextInt(60);
-	        
-	        //find the column and row of that puzzle
-			col = randPuzzle%4;
-			row = randPuzzle/4;
-
-			//go down to the first row of the puzzle
-			for(int i = 0; i<row*(size+1); i++) {
-				bufferedReader.readLine();
-			}
-			for(int i = 0; i<size; i++) {
-				//go to the first column of the puzzle
-				for(int k = 0; k<col*(size+1); k++) {
-					bufferedReader.read();
-				}
-				for(int j = 0; j<size; j++) {
-					solvedPuzzle[i][j] = bufferedReader.read()-48;
-				}
-				bufferedReader.readLine(); //go to the next line
-			}
-			
-			bufferedReader.close();
-			
-			boardInputs = new int[size][size]; //reset values on board
-			
-			int numClues;
-			int i = 0;
-			
-			if(size == 9)
-				numClues = 30;
-			else
-				numClues = 8;
-			
-			while(i<numClues) {
-				col = rand.nextInt(size);
-				row = rand.nextInt(size);
-				if(boardInputs[row][col] == 0) {
-					boardGenerated[row][col] = true;
-					boardInputs[row][col] = solvedPuzzle[row][col];
-					numEmpty--;
-					i++;
-				}	
+		PuzzleGenerator generator = new PuzzleGenerator(size);
+		int[][] puzzle = generator.generate(numClues(size));
+		setPuzzle(puzzle, generator.getSolution());
+	}
+	
+	/**
+	 * Return a new board with a puzzle taken at random from the given library
+	 * and shuffled, so the same puzzle is hardly ever played twice. A library
+	 * of puzzles to play, each followed by its solution, as written by
+	 * PuzzleConverter's generate command, gives a board at once; a library of
+	 * solutions, e.g., puzzles9.txt, has squares dug out of a solution, which
+	 * takes as long as generating a puzzle.
+	 */
+	public static Board fromLibrary(PuzzleLibrary library, Random random){
+		int size = library.size();
+		PuzzleGenerator generator = new PuzzleGenerator(size, random);
+		if(library.isPlayable()) {
+			int k = 2 * random.nextInt(library.count() / 2);
+			int[][][] shuffled = generator.shuffle(library.puzzle(k), library.puzzle(k + 1));
+			return new Board(shuffled[0], shuffled[1]);
+		}
+		int[][] solution = generator.shuffle(library.puzzle(random.nextInt(library.count())))[0];
+		return new Board(generator.dig(solution, numClues(size)), solution);
+	}
+	
+	/** 
+	 * Return the number of given squares of a new puzzle of the given size:
+	 * half of the squares for 4x4 boards, 30 for 9x9 boards and 45% of
+	 * the squares for bigger boards.
+	 */
+	static int numClues(int size) {
+		if(size <= 4)
+			return size*size/2;
+		if(size <= 9)
+			return (int) Math.round(size*size*0.37);
+		return (int) Math.round(size*size*0.45);
+	}
+	
+	/** Use the given puzzle and solution; the non-empty squares of the puzzle become given squares. */
+	private void setPuzzle(int[][] puzzle, int[][] solution) {
+		this.solution = isComplete(solution) ? pack(solution) : null;
+		for(int i = 0; i<size; i++) {
+			for(int j = 0; j<size; j++) {
+				cells[i*size + j] = (byte) (puzzle[i][j] == 0 ? 0 : puzzle[i][j] | GIVEN);
 			}
 		}
-		catch(FileNotFoundException ex) {
-            System.out.println("Unable to open file '" + fileName + "'");                
-        }
-        catch(IOException ex) {
-            System.out.println("Error reading file '" + fileName + "'");                  
-        }
+		rebuild();
+		replaced();
 	}
 
 	
 	public void solve() {
-		boardInputs = solvedPuzzle;
-		numEmpty = 0;
+		if(!findSolution())
+			return; //no solution from the given squares
+		for(int i = 0; i<cells.length; i++) {
+			cells[i] = (byte) ((cells[i] & GIVEN) | solution[i]);
+		}
+		rebuild();
+		replaced();
 	}
-
-	public LinkedList<Integer> check() {
-		LinkedList<Integer> errors = new LinkedList<Integer>();
+	
+	/** 
+	 * Return the solution of this puzzle, using the solver if the puzzle came
+	 * without a complete one, or null if the puzzle cannot be solved.
+	 */
+	public int[][] getSolution() {
+		if(!findSolution())
+			return null;
+		int[][] grid = new int[size][size];
+		for(int i = 0; i<size; i++) {
+			for(int j = 0; j<size; j++) {
+				grid[i][j] = solution[i*size + j];
+			}
+		}
+		return grid;
+	}
+	
+	/** Return true if the solution of this puzzle is known, without solving it. */
+	public boolean isSolutionKnown() {
+		return solution != null;
+	}
+	
+	/** Solve the puzzle if its solution is not known yet and return true if it is known. */
+	private boolean findSolution() {
+		if(solution == null) {
+			int[][] solved = getSolver().solve(this);
+			if(solved == null)
+				return false;
+			solution = pack(solved);
+		}
+		return true;
+	}
+	
+	/** Return the given [row][column] grid as a row-major array. */
+	private byte[] pack(int[][] grid) {
+		byte[] packed = new byte[size*size];
 		for(int i = 0; i<size; i++) {
 			for(int j = 0; j<size; j++) {
-				if(boardInputs[i][j] != 0 && boardInputs[i][j] != solvedPuzzle[i][j]) {
-					errors.add(j*100 + i);
-					System.out.println("error at row: " + (i+1) + " col: " + (j+1));
-				}
+				packed[i*size + j] = (byte) grid[i][j];
 			}
 		}
-		return errors;
+		return packed;
+	}
+	
+	/** Return the solver used by this board, e.g. to see how long the last solve took. */
+	public Solver getSolver() {
+		if(solver == null)
+			solver = new DancingLinksSolver();
+		return solver;
+	}
+	
+	/** Return true if the given grid has a number in every square. */
+	private boolean isComplete(int[][] grid) {
+		if(grid == null || grid.length != size)
+			return false;
+		for(int i = 0; i<size; i++) {
+			for(int j = 0; j<size; j++) {
+				if(grid[i][j] == 0)
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/** 
+	 * Return the squares whose values differ from the solution. The errors are
+	 * kept up to date as values are set once the solution is known, so this
+	 * only finds them from scratch if the puzzle came without a solution.
+	 * The returned view is read-only and reflects later changes to the board.
+	 */
+	public SquareSet check() {
+		if(solution == null && findSolution())
+			rebuild();
+		return errorView;
+	}
+	
+	/** Mark the square at row x, column y as an error if its value differs from the solution. */
+	private void updateError(int x, int y) {
+		if(solution == null)
+			return; //errors are not tracked until the solution is known
+		int i = x*size + y;
+		int val = cells[i] & VALUE;
+		errors.set(i, val != 0 && val != solution[i]);
 	}
 
 }
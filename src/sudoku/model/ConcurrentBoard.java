@@ -0,0 +1,194 @@
+package sudoku.model;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The squares of a board filled by several players at the same time, e.g.,
+ * the players of a room of a server. Each square is changed with a
+ * compare-and-set and the empty squares are counted with an atomic counter,
+ * so fills from any number of threads need no lock, none is lost and the
+ * count stays exact. Each fill returns a {@link Result} telling what it
+ * did, including a conflict if another fill changed the square first.
+ *
+ * <p>
+ * The count of empty squares is raised before a square is erased and
+ * lowered after one is filled, so it is never lower than the number of
+ * empty squares: {@link #isSolved()} never returns true while a square is
+ * empty. Unlike {@link Board}, this class keeps no masks, errors or history
+ * of changes; {@link #toBoard()} returns a {@link Board} with its squares.
+ * </p>
+ *
+ * <pre>
+ *  ConcurrentBoard board = new ConcurrentBoard(PuzzlePool.getDefault().take(9));
+ *  ConcurrentBoard.Result result = board.fill(1, 2, 0, 3); // only if still empty
+ *  if (result == ConcurrentBoard.Result.CONFLICT) { ... board.getValue(1, 2) ... }
+ * </pre>
+ *
+ * @see Board
+ */
+public class ConcurrentBoard {
+
+    /** What a fill did to its square. */
+    public enum Result {
+        /** An empty square was filled. */
+        FILLED,
+        /** The last empty square was filled; the board is full. */
+        COMPLETED,
+        /** The number of the square was replaced by another. */
+        CHANGED,
+        /** The number of the square was erased. */
+        CLEARED,
+        /** The square already had the number. */
+        UNCHANGED,
+        /** The square didn't have the number expected, as another fill changed it; nothing was done. */
+        CONFLICT,
+        /** The square is part of the puzzle; nothing was done. */
+        GIVEN,
+        /** The square or a number is outside the board; nothing was done. */
+        INVALID
+    }
+
+    /** Flag of the squares that are part of the puzzle, stored with their values. */
+    private static final int GIVEN = 0x80;
+
+    /** Mask of the value stored in a square. */
+    private static final int VALUE = 0x7F;
+
+    /** Size of this board (number of columns/rows). */
+    public final int size;
+
+    /**
+     * Value of each square in row-major order, i.e., square (x, y) is at
+     * x*size + y, with GIVEN set for the squares that are part of the puzzle.
+     */
+    private final AtomicIntegerArray cells;
+
+    /** Number of empty squares, never lower than the actual number. */
+    private final AtomicInteger numEmpty = new AtomicInteger();
+
+    /** Solution of the puzzle as a [row][column] array, or null if it is not known. */
+    private final int[][] solution;
+
+    /** Create a board with the squares of the given board. */
+    public ConcurrentBoard(Board board) {
+        size = board.size;
+        cells = new AtomicIntegerArray(size * size);
+        int empty = 0;
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                int v = board.getValue(x, y);
+                cells.set(x * size + y, board.isGiven(x, y) ? v | GIVEN : v);
+                if (v == 0) {
+                    empty++;
+                }
+            }
+        }
+        numEmpty.set(empty);
+        solution = board.isSolutionKnown() ? board.getSolution() : null;
+    }
+
+    /** Return the value of the square at row x, column y. */
+    public int getValue(int x, int y) {
+        return cells.get(x * size + y) & VALUE;
+    }
+
+    /** Return true if the value at row x, column y is part of the puzzle. */
+    public boolean isGiven(int x, int y) {
+        return (cells.get(x * size + y) & GIVEN) != 0;
+    }
+
+    /** Return the number of empty squares, which may include some being filled right now. */
+    public int getNumEmpty() {
+        return numEmpty.get();
+    }
+
+    /** Return true if every square is filled. */
+    public boolean isSolved() {
+        return numEmpty.get() == 0;
+    }
+
+    /**
+     * Put v in the square at row x, column y, or erase it if v is 0, whatever
+     * number it has: if another fill changes the square at the same time, the
+     * one done last wins and neither is told of a conflict. Use
+     * {@link #fill(int, int, int, int)} to be told.
+     */
+    public Result overwrite(int x, int y, int v) {
+        if (!isValid(x, y, v)) {
+            return Result.INVALID;
+        }
+        int i = x * size + y;
+        Result result;
+        do {
+            int cell = cells.get(i);
+            if ((cell & GIVEN) != 0) {
+                return Result.GIVEN;
+            }
+            result = set(i, cell, v);
+        } while (result == Result.CONFLICT);
+        return result;
+    }
+
+    /**
+     * Fill the square at row x, column y with v, or erase it if v is 0, only
+     * if it has the expected number, e.g., the one the player saw when
+     * filling it, 0 for an empty square. Return CONFLICT if it doesn't, as
+     * another fill changed it; its number is then that of {@link #getValue}.
+     */
+    public Result fill(int x, int y, int expected, int v) {
+        if (!isValid(x, y, v) || expected < 0 || expected > size) {
+            return Result.INVALID;
+        }
+        int i = x * size + y;
+        if ((cells.get(i) & GIVEN) != 0) {
+            return Result.GIVEN; // given squares never change
+        }
+        return set(i, expected, v);
+    }
+
+    /** Set square i, which is not given, from expected to v, keeping the count of empty squares. */
+    private Result set(int i, int expected, int v) {
+        if (expected == v) {
+            return cells.get(i) == v ? Result.UNCHANGED : Result.CONFLICT;
+        }
+        if (v == 0) {
+            numEmpty.incrementAndGet(); // before the square is empty
+            if (!cells.compareAndSet(i, expected, 0)) {
+                numEmpty.decrementAndGet();
+                return Result.CONFLICT;
+            }
+            return Result.CLEARED;
+        }
+        if (!cells.compareAndSet(i, expected, v)) {
+            return Result.CONFLICT;
+        }
+        if (expected != 0) {
+            return Result.CHANGED;
+        }
+        return numEmpty.decrementAndGet() == 0 ? Result.COMPLETED : Result.FILLED;
+    }
+
+    /** Return true if row x, column y is a square of this board and v a number or 0. */
+    private boolean isValid(int x, int y, int v) {
+        return x >= 0 && x < size && y >= 0 && y < size && v >= 0 && v <= size;
+    }
+
+    /** Return a new board with the squares of this board and its solution, if known. */
+    public Board toBoard() {
+        int[][] puzzle = new int[size][size];
+        int[][] values = new int[size][size];
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                int cell = cells.get(x * size + y);
+                values[x][y] = cell & VALUE;
+                if ((cell & GIVEN) != 0) {
+                    puzzle[x][y] = cell & VALUE;
+                }
+            }
+        }
+        Board board = new Board(puzzle, solution);
+        board.setInputs(values);
+        return board;
+    }
+}
@@ -0,0 +1,343 @@
+package sudoku.model;
+
+/**
+ * A Sudoku solver using Knuth's Algorithm X with Dancing Links.
+ *
+ * <p>
+ * A puzzle of size n is an exact cover problem with 4n^2 constraints
+ * (columns): every square is filled, and every row, column and box contains
+ * each number once. Placing number v in a square is an option (row) that
+ * satisfies exactly four constraints. All nodes of the matrix are stored in
+ * int arrays that are allocated once per board size and rewired in place
+ * for every puzzle, and the search keeps its own explicit stack, so nothing
+ * is allocated while searching.
+ * </p>
+ */
+public class DancingLinksSolver implements Solver {
+
+    /** Board size the node arrays are allocated for. */
+    private int size;
+
+    /** Number of columns (constraints) of the matrix. */
+    private int numCols;
+
+    /** Left, right, up and down links of each node. Node 0 is the root. */
+    private int[] left, right, up, down;
+
+    /** Column header of each node. */
+    private int[] col;
+
+    /** Option (row*size + column)*size + number-1 of each option node. */
+    private int[] option;
+
+    /** Number of nodes currently in each column. */
+    private int[] count;
+
+    /** Columns covered by the given squares of the current puzzle. */
+    private boolean[] covered;
+
+    /** Column and option node chosen at each level of the search. */
+    private int[] colStack, nodeStack;
+
+    /** Options of the given squares of the current puzzle. */
+    private int[] givens;
+    private int numGivens;
+
+    /** Last solution found. */
+    private int[][] solution;
+
+    private long nodeCount;
+    private long solveTime;
+
+    /** Maximum number of nodes a search may visit before giving up. */
+    private long nodeLimit = Long.MAX_VALUE;
+
+    /** True if the last search gave up after visiting nodeLimit nodes. */
+    private boolean aborted;
+
+    /** Create a new solver. */
+    public DancingLinksSolver() {
+    }
+
+    @Override
+    public int[][] solve(Board board) {
+        long start = System.nanoTime();
+        nodeCount = 0;
+        solution = null;
+        if (load(board)) {
+            search(1);
+        }
+        solveTime = System.nanoTime() - start;
+        return solution;
+    }
+
+    @Override
+    public int countSolutions(Board board, int limit) {
+        long start = System.nanoTime();
+        nodeCount = 0;
+        solution = null;
+        int found = load(board) && limit > 0 ? search(limit) : 0;
+        solveTime = System.nanoTime() - start;
+        return found;
+    }
+
+    /**
+     * Make searches give up after visiting the given number of nodes,
+     * e.g., to bound the time spent on hard puzzles.
+     *
+     * @see #isAborted()
+     */
+    public void setNodeLimit(long nodeLimit) {
+        this.nodeLimit = nodeLimit;
+    }
+
+    /**
+     * Return true if the last search gave up because it reached the node
+     * limit; its result is then incomplete, e.g., a count of 1 doesn't
+     * mean the puzzle has a unique solution.
+     */
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    @Override
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public long getSolveTime() {
+        return solveTime;
+    }
+
+    /**
+     * Rebuild the matrix for the given board and cover the options of its
+     * given squares. Return false if two given squares conflict.
+     */
+    private boolean load(Board board) {
+        if (board.size != size) {
+            allocate(board.size);
+        }
+        link();
+        numGivens = 0;
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                int v = board.isGiven(r, c) ? board.getValue(r, c) : 0;
+                if (v < 0 || v > size) {
+                    return false;
+                }
+                if (v != 0) {
+                    int opt = (r * size + c) * size + v - 1;
+                    if (!select(firstNode(opt))) {
+                        return false;
+                    }
+                    givens[numGivens++] = opt;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Allocate the node arrays for puzzles of the given size. */
+    private void allocate(int n) {
+        size = n;
+        numCols = 4 * n * n;
+        int numNodes = 1 + numCols + 4 * n * n * n;
+        left = new int[numNodes];
+        right = new int[numNodes];
+        up = new int[numNodes];
+        down = new int[numNodes];
+        col = new int[numNodes];
+        option = new int[numNodes];
+        count = new int[numCols + 1];
+        covered = new boolean[numCols + 1];
+        colStack = new int[n * n];
+        nodeStack = new int[n * n];
+        givens = new int[n * n];
+    }
+
+    /** Link all nodes of the matrix, i.e., reset it to the empty puzzle. */
+    private void link() {
+        int box = (int) Math.round(Math.sqrt(size));
+        int cells = size * size;
+        for (int i = 0; i <= numCols; i++) {
+            left[i] = i == 0 ? numCols : i - 1;
+            right[i] = i == numCols ? 0 : i + 1;
+            up[i] = i;
+            down[i] = i;
+            col[i] = i;
+            count[i] = 0;
+            covered[i] = false;
+        }
+        int node = numCols + 1;
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                int b = (r / box) * box + c / box;
+                for (int d = 0; d < size; d++) {
+                    int first = node;
+                    appendNode(node++, 1 + r * size + c, first);
+                    appendNode(node++, 1 + cells + r * size + d, first);
+                    appendNode(node++, 1 + 2 * cells + c * size + d, first);
+                    appendNode(node++, 1 + 3 * cells + b * size + d, first);
+                }
+            }
+        }
+    }
+
+    /** Append the given node to the bottom of column c and to the end of its option. */
+    private void appendNode(int node, int c, int first) {
+        col[node] = c;
+        option[node] = (first - numCols - 1) / 4;
+        up[node] = up[c];
+        down[node] = c;
+        down[up[c]] = node;
+        up[c] = node;
+        count[c]++;
+        if (node == first) {
+            left[node] = node;
+            right[node] = node;
+        } else {
+            left[node] = left[first];
+            right[node] = first;
+            right[left[first]] = node;
+            left[first] = node;
+        }
+    }
+
+    /** Return the first node of the given option. */
+    private int firstNode(int opt) {
+        return numCols + 1 + opt * 4;
+    }
+
+    /** Choose the option of a given square by covering all its columns. */
+    private boolean select(int node) {
+        int j = node;
+        do {
+            if (covered[col[j]]) {
+                return false;
+            }
+            j = right[j];
+        } while (j != node);
+        j = node;
+        do {
+            covered[col[j]] = true;
+            cover(col[j]);
+            j = right[j];
+        } while (j != node);
+        return true;
+    }
+
+    /** Remove column c and all the options that intersect it. */
+    private void cover(int c) {
+        right[left[c]] = right[c];
+        left[right[c]] = left[c];
+        for (int i = down[c]; i != c; i = down[i]) {
+            for (int j = right[i]; j != i; j = right[j]) {
+                down[up[j]] = down[j];
+                up[down[j]] = up[j];
+                count[col[j]]--;
+            }
+        }
+    }
+
+    /** Restore column c, undoing cover(c). */
+    private void uncover(int c) {
+        for (int i = up[c]; i != c; i = up[i]) {
+            for (int j = left[i]; j != i; j = left[j]) {
+                count[col[j]]++;
+                down[up[j]] = j;
+                up[down[j]] = j;
+            }
+        }
+        right[left[c]] = c;
+        left[right[c]] = c;
+    }
+
+    /** Return the uncovered column with the fewest options. */
+    private int chooseColumn() {
+        int best = right[0];
+        for (int c = right[best]; c != 0; c = right[c]) {
+            if (count[c] < count[best]) {
+                best = c;
+                if (count[c] <= 1) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Search for solutions until the given number of them is found.
+     * The first solution found is saved in the solution field.
+     *
+     * @return Number of solutions found, at most limit.
+     */
+    private int search(int limit) {
+        int found = 0;
+        int level = 0;
+        int c;
+        int r;
+        aborted = false;
+        while (true) {
+            // go down: choose a column and try its first option
+            if (right[0] == 0) {
+                if (found++ == 0) {
+                    saveSolution(level);
+                }
+                if (found >= limit) {
+                    return found;
+                }
+                r = -1; // backtrack
+            } else {
+                c = chooseColumn();
+                cover(c);
+                colStack[level] = c;
+                r = down[c];
+            }
+            // try option r at this level, backtracking while options run out
+            while (true) {
+                if (r >= 0 && r != colStack[level]) {
+                    if (++nodeCount > nodeLimit) {
+                        aborted = true;
+                        return found;
+                    }
+                    nodeStack[level] = r;
+                    for (int j = right[r]; j != r; j = right[j]) {
+                        cover(col[j]);
+                    }
+                    level++;
+                    break;
+                }
+                if (r >= 0) {
+                    uncover(colStack[level]);
+                }
+                if (--level < 0) {
+                    return found;
+                }
+                r = nodeStack[level];
+                for (int j = left[r]; j != r; j = left[j]) {
+                    uncover(col[j]);
+                }
+                r = down[r];
+            }
+        }
+    }
+
+    /** Save the solution made of the given squares and the options chosen so far. */
+    private void saveSolution(int level) {
+        solution = new int[size][size];
+        for (int i = 0; i < numGivens; i++) {
+            setSquare(givens[i]);
+        }
+        for (int i = 0; i < level; i++) {
+            setSquare(option[nodeStack[i]]);
+        }
+    }
+
+    /** Store the number of the given option in the solution. */
+    private void setSquare(int opt) {
+        int cell = opt / size;
+        solution[cell / size][cell % size] = opt % size + 1;
+    }
+}
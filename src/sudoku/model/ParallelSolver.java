@@ -0,0 +1,337 @@
+package sudoku.model;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A Sudoku solver that searches on a {@link ForkJoinPool}. Before each
+ * branch, the squares forced by the others are filled: those with a single
+ * candidate (naked singles) and those that are the only place left for a
+ * number in their row, column or box (hidden singles), until none is left or
+ * a square or number has no place, which ends the branch. The search then
+ * branches on the most constrained empty square, i.e., the one with the
+ * fewest candidates, and near the top of the search tree every candidate
+ * is tried in its own fork/join task so idle workers can steal branches.
+ * Deeper in the tree, each task finishes its branch sequentially.
+ *
+ * <p>
+ * Counting solutions stops all tasks as soon as the requested number of
+ * solutions is found, so checking that a puzzle has a unique solution
+ * (a limit of 2) costs little more than solving it.
+ * </p>
+ */
+public class ParallelSolver implements Solver {
+
+    /** Branches are forked only while a task has at least this many empty squares. */
+    private static final int MIN_SPLIT_EMPTY = 40;
+
+    /** Branches are forked only in this many levels from the top of the search. */
+    private static final int MAX_SPLIT_DEPTH = 6;
+
+    /** Pool to run the search tasks. */
+    private final ForkJoinPool pool;
+
+    private volatile long nodeCount;
+    private volatile long solveTime;
+
+    /** Create a new solver that runs on the common fork/join pool. */
+    public ParallelSolver() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /** Create a new solver that runs on the given pool. */
+    public ParallelSolver(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public int[][] solve(Board board) {
+        Search search = run(board, 1);
+        if (search == null || search.solution.get() == null) {
+            return null;
+        }
+        int n = board.size;
+        int[] cells = search.solution.get();
+        int[][] solution = new int[n][n];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(cells, i * n, solution[i], 0, n);
+        }
+        return solution;
+    }
+
+    @Override
+    public int countSolutions(Board board, int limit) {
+        Search search = run(board, limit);
+        return search == null ? 0 : Math.min(search.found.get(), limit);
+    }
+
+    @Override
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public long getSolveTime() {
+        return solveTime;
+    }
+
+    /** Search the given board for up to limit solutions; return null if the clues conflict. */
+    private Search run(Board board, int limit) {
+        long start = System.nanoTime();
+        Search search = new Search(board.size, limit);
+        State root = search.load(board);
+        if (root != null && limit > 0) {
+            pool.invoke(new Branch(search, root, 0));
+        }
+        nodeCount = search.nodes.sum();
+        solveTime = System.nanoTime() - start;
+        return root == null ? null : search;
+    }
+
+    /** Shared results and settings of one search. */
+    private static class Search {
+        final int size;
+        final int box;
+        final int limit;
+        final int full;
+        final AtomicInteger found = new AtomicInteger();
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<int[]> solution = new AtomicReference<>();
+        final LongAdder nodes = new LongAdder();
+
+        /** Squares of each row, column and box. */
+        final int[][] units;
+
+        /** Row, column and box of each square. */
+        final int[] rowOf, colOf, boxOf;
+
+        Search(int size, int limit) {
+            this.size = size;
+            this.box = (int) Math.round(Math.sqrt(size));
+            this.limit = limit;
+            this.full = ((1 << (size + 1)) - 1) & ~1;
+            units = new int[3 * size][size];
+            rowOf = new int[size * size];
+            colOf = new int[size * size];
+            boxOf = new int[size * size];
+            for (int cell = 0; cell < size * size; cell++) {
+                int r = cell / size;
+                int c = cell % size;
+                rowOf[cell] = r;
+                colOf[cell] = c;
+                boxOf[cell] = (r / box) * box + c / box;
+                units[r][c] = cell;
+                units[size + c][r] = cell;
+                units[2 * size + boxOf[cell]][(r % box) * box + c % box] = cell;
+            }
+        }
+
+        /** Return the state of the given squares of the board, or null if they conflict. */
+        State load(Board board) {
+            State s = new State(size);
+            for (int r = 0; r < size; r++) {
+                for (int c = 0; c < size; c++) {
+                    int v = board.isGiven(r, c) ? board.getValue(r, c) : 0;
+                    if (v == 0) {
+                        continue;
+                    }
+                    int cell = r * size + c;
+                    if (v < 0 || v > size || (used(s, cell) & (1 << v)) != 0) {
+                        return null;
+                    }
+                    place(s, cell, v);
+                }
+            }
+            return s;
+        }
+
+        /** Record a found solution; stop the search once enough are found. */
+        void solutionFound(State s) {
+            solution.compareAndSet(null, s.cells.clone());
+            if (found.incrementAndGet() >= limit) {
+                done.set(true);
+            }
+        }
+
+        int used(State s, int cell) {
+            return s.rows[rowOf[cell]] | s.cols[colOf[cell]] | s.boxes[boxOf[cell]];
+        }
+
+        void place(State s, int cell, int v) {
+            int bit = 1 << v;
+            s.cells[cell] = v;
+            s.rows[rowOf[cell]] |= bit;
+            s.cols[colOf[cell]] |= bit;
+            s.boxes[boxOf[cell]] |= bit;
+            s.empty--;
+        }
+
+        /**
+         * Return the empty square with the fewest candidates, or -1 if the
+         * board is full. The candidates of the square are stored in s.best.
+         */
+        int mostConstrained(State s) {
+            int bestCell = -1;
+            int bestCount = Integer.MAX_VALUE;
+            for (int cell = 0; cell < s.cells.length; cell++) {
+                if (s.cells[cell] != 0) {
+                    continue;
+                }
+                int cand = ~used(s, cell) & full;
+                int n = Integer.bitCount(cand);
+                if (n < bestCount) {
+                    bestCell = cell;
+                    bestCount = n;
+                    s.best = cand;
+                    if (n <= 1) {
+                        break;
+                    }
+                }
+            }
+            return bestCell;
+        }
+
+        /**
+         * Fill the naked and hidden singles of the given state until there
+         * are none left. Return false if a square has no candidate or a
+         * number no square in a row, column or box, i.e., the state has no
+         * solution.
+         */
+        boolean propagate(State s) {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int cell = 0; cell < s.cells.length; cell++) {
+                    if (s.cells[cell] == 0) {
+                        int cand = ~used(s, cell) & full;
+                        if (cand == 0) {
+                            return false;
+                        }
+                        if ((cand & (cand - 1)) == 0) {
+                            place(s, cell, Integer.numberOfTrailingZeros(cand));
+                            changed = true;
+                        }
+                    }
+                }
+                for (int[] unit : units) {
+                    // numbers allowed by one empty square of the unit and by more than one
+                    int once = 0;
+                    int twice = 0;
+                    int placed = 0;
+                    for (int cell : unit) {
+                        if (s.cells[cell] == 0) {
+                            int cand = ~used(s, cell) & full;
+                            twice |= once & cand;
+                            once |= cand;
+                        } else {
+                            placed |= 1 << s.cells[cell];
+                        }
+                    }
+                    if ((once | placed) != full) {
+                        return false;
+                    }
+                    for (int hidden = once & ~twice; hidden != 0; hidden &= hidden - 1) {
+                        int v = Integer.numberOfTrailingZeros(hidden);
+                        int bit = 1 << v;
+                        for (int cell : unit) {
+                            if (s.cells[cell] == 0 && (used(s, cell) & bit) == 0) {
+                                place(s, cell, v);
+                                changed = true;
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+
+        /** Search the given state sequentially; the state is changed. */
+        void backtrack(State s) {
+            if (done.get() || !propagate(s)) {
+                return;
+            }
+            int cell = mostConstrained(s);
+            if (cell < 0) {
+                solutionFound(s);
+                return;
+            }
+            for (int cand = s.best; cand != 0 && !done.get(); cand &= cand - 1) {
+                State next = cand == (cand & -cand) ? s : new State(s); // the last candidate may reuse s
+                nodes.increment();
+                place(next, cell, Integer.numberOfTrailingZeros(cand));
+                backtrack(next);
+            }
+        }
+    }
+
+    /** Values and row, column and box masks of a (partially) filled board. */
+    private static class State {
+        final int[] cells;
+        final int[] rows;
+        final int[] cols;
+        final int[] boxes;
+        int empty;
+        int best;
+
+        State(int size) {
+            cells = new int[size * size];
+            rows = new int[size];
+            cols = new int[size];
+            boxes = new int[size];
+            empty = size * size;
+        }
+
+        State(State s) {
+            cells = s.cells.clone();
+            rows = s.rows.clone();
+            cols = s.cols.clone();
+            boxes = s.boxes.clone();
+            empty = s.empty;
+        }
+    }
+
+    /** A fork/join task searching the subtree below the given state. */
+    @SuppressWarnings("serial")
+    private static class Branch extends RecursiveAction {
+        private final Search search;
+        private final State state;
+        private final int depth;
+
+        Branch(Search search, State state, int depth) {
+            this.search = search;
+            this.state = state;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            if (search.done.get() || !search.propagate(state)) {
+                return;
+            }
+            if (depth >= MAX_SPLIT_DEPTH || state.empty < MIN_SPLIT_EMPTY) {
+                search.backtrack(state);
+                return;
+            }
+            int cell = search.mostConstrained(state);
+            if (cell < 0) {
+                search.solutionFound(state);
+                return;
+            }
+            int cands = state.best;
+            Branch[] branches = new Branch[Integer.bitCount(cands)];
+            int i = 0;
+            for (int cand = cands; cand != 0; cand &= cand - 1) {
+                State next = new State(state);
+                search.place(next, cell, Integer.numberOfTrailingZeros(cand));
+                search.nodes.increment();
+                branches[i++] = new Branch(search, next, depth + 1);
+            }
+            invokeAll(branches);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package sudoku.model;
+
+import java.io.IOException;
+
+/**
+ * A command-line tool to convert a text library of puzzles, such as
+ * puzzles9.txt, to the packed binary format read by {@link PuzzleLibrary},
+ * or to generate a binary library of puzzles to play, e.g., for the board
+ * sizes whose puzzles take long to generate, which {@link PuzzlePool} then
+ * falls back to.
+ *
+ * <pre>
+ *  java sudoku.model.PuzzleConverter puzzles9.txt 9 puzzles9.bin
+ *  java sudoku.model.PuzzleConverter generate 25 200 puzzles25.bin
+ * </pre>
+ *
+ * If no arguments are given, puzzles4.txt and puzzles9.txt in the current
+ * directory are converted to puzzles4.bin and puzzles9.bin.
+ */
+public class PuzzleConverter {
+
+    /** Convert the given text library of puzzles of the given size. */
+    public static void convert(String in, int size, String out) throws IOException {
+        PuzzleLibrary library = new PuzzleLibrary(in, size);
+        PuzzleLibrary.writeBinary(out, library);
+        System.out.println("Converted " + library.count() + " puzzles from '" + in + "' to '" + out + "'");
+    }
+
+    /**
+     * Generate the given number of puzzles of the given size to a binary
+     * library, each followed by its solution.
+     */
+    public static void generate(int size, int count, String out) throws IOException {
+        PuzzleGenerator generator = new PuzzleGenerator(size);
+        int clues = Board.numClues(size);
+        PuzzleLibrary.writeBinary(out, size, 2 * count,
+                k -> k % 2 == 0 ? generator.generate(clues) : generator.getSolution());
+        System.out.println("Generated " + count + " puzzles to '" + out + "'");
+    }
+
+    public static void main(String[] args) {
+        try {
+            if (args.length >= 4 && args[0].equals("generate")) {
+                generate(Integer.parseInt(args[1]), Integer.parseInt(args[2]), args[3]);
+            } else if (args.length >= 3) {
+                convert(args[0], Integer.parseInt(args[1]), args[2]);
+            } else {
+                convert("puzzles4.txt", 4, "puzzles4.bin");
+                convert("puzzles9.txt", 9, "puzzles9.bin");
+            }
+        } catch (IOException e) {
+            System.out.println("Error converting puzzles: " + e.getMessage());
+        } catch (NumberFormatException e) {
+            System.out.println("Usage: PuzzleConverter input.txt size output.bin");
+            System.out.println("       PuzzleConverter generate size count output.bin");
+        }
+    }
+}
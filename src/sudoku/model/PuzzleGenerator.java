@@ -0,0 +1,241 @@
+package sudoku.model;
+
+import java.util.Random;
+
+/**
+ * Generates Sudoku puzzles that have a unique solution. A random solved grid
+ * is made first by filling the boxes on the diagonal, which don't constrain
+ * each other, with random permutations and letting a solver complete the
+ * rest (trying again in the rare case it can't be completed). Given squares are then removed in random order, and a removal is
+ * kept only if the puzzle still has exactly one solution, until the
+ * requested number of given squares is reached or no square can be removed.
+ * A removed square whose number is still forced by the squares left, as the
+ * only number its row, column and box allow or the only square of one of
+ * them that allows it, keeps the solution unique without asking the solver,
+ * which most early removals are.
+ *
+ * <pre>
+ *  PuzzleGenerator generator = new PuzzleGenerator(9);
+ *  int[][] puzzle = generator.generate(PuzzleGenerator.Difficulty.MEDIUM);
+ *  Board board = new Board(puzzle, generator.getSolution());
+ * </pre>
+ */
+public class PuzzleGenerator {
+
+    /** Difficulty of a generated puzzle, given as the fraction of given squares. */
+    public enum Difficulty {
+        EASY (0.45),
+        MEDIUM (0.37),
+        HARD (0.30);
+
+        /** Fraction of the squares that are given. */
+        private final double clues;
+
+        Difficulty(double clues) {
+            this.clues = clues;
+        }
+
+        /** Return the number of given squares of a puzzle of the given size. */
+        public int clues(int size) {
+            return (int) Math.round(clues * size * size);
+        }
+    }
+
+    /** Size of the generated puzzles. */
+    private final int size;
+
+    /** Width and height of a box. */
+    private final int box;
+
+    private final Random random;
+
+    /** Used to complete random grids and to check that puzzles are unique. */
+    private final DancingLinksSolver solver = new DancingLinksSolver();
+
+    /** 
+     * Search nodes per square a uniqueness check may visit; a square is kept if
+     * uniqueness can't be proven within this limit. This bounds the time to
+     * generate big puzzles, whose checks can otherwise take very long.
+     */
+    private static final int NODES_PER_SQUARE = 8;
+
+    /** Solution of the last generated puzzle. */
+    private int[][] solution;
+
+    /** Create a generator of puzzles of the given size. */
+    public PuzzleGenerator(int size) {
+        this(size, new Random());
+    }
+
+    /** Create a generator of puzzles of the given size using the given random numbers. */
+    public PuzzleGenerator(int size, Random random) {
+        this.size = size;
+        this.box = (int) Math.round(Math.sqrt(size));
+        this.random = random;
+    }
+
+    /** Return the solution of the last generated puzzle. */
+    public int[][] getSolution() {
+        return solution;
+    }
+
+    /** Generate a new puzzle of the given difficulty. */
+    public int[][] generate(Difficulty difficulty) {
+        return generate(difficulty.clues(size));
+    }
+
+    /**
+     * Generate a new puzzle with a unique solution and about the given number
+     * of given squares; the puzzle has more given squares if no more can be
+     * removed without losing uniqueness.
+     *
+     * @return Puzzle indexed as [row][column], with 0 for empty squares.
+     */
+    public int[][] generate(int numClues) {
+        return dig(randomGrid(), numClues);
+    }
+
+    /** Return a new random solved grid. */
+    public int[][] randomGrid() {
+        solver.setNodeLimit(Long.MAX_VALUE);
+        int[][] solved;
+        do {
+            solved = solver.solve(new Board(randomDiagonal()));
+        } while (solved == null); // some small boards can't be completed
+        return solved;
+    }
+
+    /** Return a grid with only the boxes on the diagonal filled at random. */
+    private int[][] randomDiagonal() {
+        int[][] grid = new int[size][size];
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = i + 1;
+        }
+        for (int b = 0; b < size; b += box + 1) {
+            // b is the index of a box on the diagonal
+            shuffle(values);
+            int top = (b / box) * box;
+            int left = (b % box) * box;
+            for (int i = 0; i < size; i++) {
+                grid[top + i / box][left + i % box] = values[i];
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Make a puzzle of the given solution by removing squares in random order
+     * while it keeps a unique solution, until only numClues squares are left.
+     * The given solution becomes the solution of the last generated puzzle.
+     */
+    public int[][] dig(int[][] solution, int numClues) {
+        this.solution = solution;
+        Board board = new Board(solution);
+        solver.setNodeLimit(size > 9 ? (long) NODES_PER_SQUARE * size * size : Long.MAX_VALUE);
+        int[] cells = new int[size * size];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = i;
+        }
+        shuffle(cells);
+        int clues = cells.length;
+        for (int i = 0; i < cells.length && clues > numClues; i++) {
+            int r = cells[i] / size;
+            int c = cells[i] % size;
+            board.setValue(r, c, 0);
+            if (isForced(board, r, c, solution[r][c])
+                    || (solver.countSolutions(board, 2) == 1 && !solver.isAborted())) {
+                clues--;
+            } else {
+                board.setValue(r, c, solution[r][c]);
+            }
+        }
+        return board.getInputs();
+    }
+
+    /**
+     * Return true if the empty square at row r, column c of the given board
+     * can only have v: it is the only number allowed there, or the only
+     * square of its row, column or box that allows v. Each solution then has
+     * v there, so removing a square of a puzzle with a unique solution keeps
+     * it unique if the square is forced.
+     */
+    private boolean isForced(Board board, int r, int c, int v) {
+        if (board.candidates(r, c) == 1 << v) {
+            return true;
+        }
+        boolean row = true, column = true, box = true;
+        int top = (r / this.box) * this.box;
+        int left = (c / this.box) * this.box;
+        for (int i = 0; i < size; i++) {
+            row = row && (i == c || !allows(board, r, i, v));
+            column = column && (i == r || !allows(board, i, c, v));
+            int br = top + i / this.box;
+            int bc = left + i % this.box;
+            box = box && ((br == r && bc == c) || !allows(board, br, bc, v));
+        }
+        return row || column || box;
+    }
+
+    /** Return true if the square at row r, column c of the given board is empty and can have v. */
+    private static boolean allows(Board board, int r, int c, int v) {
+        return board.getValue(r, c) == 0 && (board.candidates(r, c) & 1 << v) != 0;
+    }
+
+    /**
+     * Return copies of the given grids, e.g., a puzzle and its solution, all
+     * shuffled the same way: the numbers relabelled, the rows and columns
+     * permuted within their bands and stacks, and the bands and stacks
+     * permuted, at random. A shuffled puzzle has as many solutions as the
+     * puzzle, the shuffled solution among them, so a puzzle of a library can
+     * be played again as a new one.
+     */
+    public int[][][] shuffle(int[][]... grids) {
+        int[] numbers = permutation(size);
+        int[] rows = lines();
+        int[] columns = lines();
+        int[][][] shuffled = new int[grids.length][size][size];
+        for (int g = 0; g < grids.length; g++) {
+            for (int r = 0; r < size; r++) {
+                for (int c = 0; c < size; c++) {
+                    int v = grids[g][rows[r]][columns[c]];
+                    shuffled[g][r][c] = v == 0 ? 0 : numbers[v - 1] + 1;
+                }
+            }
+        }
+        return shuffled;
+    }
+
+    /** Return a random order of the rows or columns that keeps those of a band or stack together. */
+    private int[] lines() {
+        int[] bands = permutation(box);
+        int[] order = new int[size];
+        for (int b = 0; b < box; b++) {
+            int[] within = permutation(box);
+            for (int i = 0; i < box; i++) {
+                order[b * box + i] = bands[b] * box + within[i];
+            }
+        }
+        return order;
+    }
+
+    /** Return the numbers from 0 to n-1 in random order. */
+    private int[] permutation(int n) {
+        int[] p = new int[n];
+        for (int i = 0; i < n; i++) {
+            p[i] = i;
+        }
+        shuffle(p);
+        return p;
+    }
+
+    /** Shuffle the given array. */
+    private void shuffle(int[] a) {
+        for (int i = a.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+    }
+}
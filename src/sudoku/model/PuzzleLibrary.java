@@ -0,0 +1,332 @@
+package sudoku.model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * A library of solved puzzles stored in a text file such as puzzles9.txt
+ * or in a packed binary file such as puzzles9.bin. The file is
+ * memory-mapped and indexed once, and each puzzle is then decoded straight
+ * from the mapped buffer, so getting a puzzle doesn't open or read the
+ * file again.
+ *
+ * <p>
+ * A text file is a sequence of blocks separated by blank lines. Each block has
+ * one line per row, and each line has one or more puzzles side by side,
+ * each written as size digits and separated by a space, e.g., four 9x9
+ * puzzles per block in puzzles9.txt. Any number of blocks and puzzles per
+ * block is accepted. Text files can only hold puzzles of sizes up to 9.
+ * </p>
+ *
+ * <p>
+ * A binary file starts with a 16-byte header: the magic number "SDKP",
+ * a 2-byte version (1), the board size, the number of bits per square,
+ * the number of puzzles and the number of bytes per puzzle. It is followed
+ * by the puzzles, each a fixed-size record of its squares in row-major
+ * order packed with the given number of bits per square (e.g., 4 bits for
+ * 9x9 and 5 bits for 16x16 or 25x25 boards), most significant bit first.
+ * A binary file needs no index and no parsing. Use {@link PuzzleConverter}
+ * to convert a text file to the binary format.
+ * </p>
+ *
+ * <p>
+ * The puzzles of a library are usually solutions, which
+ * {@link Board#fromLibrary} digs puzzles out of. A library written by
+ * {@link PuzzleConverter#generate} instead holds puzzles to play, each
+ * followed by its solution; see {@link #isPlayable()}.
+ * </p>
+ */
+public class PuzzleLibrary {
+
+    /** First four bytes of a binary library, "SDKP". */
+    private static final int MAGIC = 0x53444B50;
+
+    /** Version of the binary format. */
+    private static final int VERSION = 1;
+
+    /** Size of the header of a binary library in bytes. */
+    private static final int HEADER_SIZE = 16;
+
+    /** Libraries already loaded, keyed by file name. */
+    private static final Map<String, PuzzleLibrary> libraries = new HashMap<>();
+
+    /** Board size of the puzzles. */
+    private final int size;
+
+    /** Mapped contents of the library file. */
+    private final MappedByteBuffer buffer;
+
+    /** Position of the first digit of each puzzle in the buffer. */
+    private int[] offsets = new int[64];
+
+    /** Distance in bytes between the rows of each puzzle. */
+    private int[] strides = new int[64];
+
+    /** Number of puzzles in this library. */
+    private int count;
+
+    /** Bits per square of a binary library, or 0 for a text library. */
+    private int bits;
+
+    /** Bytes per puzzle of a binary library. */
+    private int recordSize;
+
+    /**
+     * Return the library of puzzles of the given size, stored in the file
+     * "puzzles<size>.bin" or, if there is no such file, "puzzles<size>.txt".
+     * The file is mapped and indexed only the first time.
+     */
+    public static PuzzleLibrary forSize(int size) throws IOException {
+        String fileName = "puzzles" + size + ".bin";
+        if (!new File(fileName).exists()) {
+            fileName = "puzzles" + size + ".txt";
+        }
+        return load(fileName, size);
+    }
+
+    /** Return the library stored in the given file, mapping and indexing it only the first time. */
+    public static synchronized PuzzleLibrary load(String fileName, int size) throws IOException {
+        PuzzleLibrary library = libraries.get(fileName);
+        if (library == null) {
+            library = new PuzzleLibrary(fileName, size);
+            libraries.put(fileName, library);
+        }
+        return library;
+    }
+
+    /** 
+     * Map and index the given file of puzzles of the given size. 
+     * 
+     * @throws IOException If the file can't be read or is a binary library
+     *   of a different size or version.
+     */
+    public PuzzleLibrary(String fileName, int size) throws IOException {
+        this.size = size;
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r");
+             FileChannel channel = file.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.limit() >= HEADER_SIZE && buffer.getInt(0) == MAGIC) {
+            readHeader(fileName);
+        } else if (size <= 9) {
+            index();
+        } else {
+            throw new IOException("A text library can't hold puzzles of size " + size + ": '" + fileName + "'");
+        }
+    }
+
+    /** Return the board size of the puzzles of this library. */
+    public int size() {
+        return size;
+    }
+
+    /** Return the number of puzzles in this library. */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Return true if this library holds puzzles to play, each followed by
+     * its solution, as written by {@link PuzzleConverter#generate}, rather
+     * than solutions only: its first puzzle has empty squares.
+     */
+    public boolean isPlayable() {
+        if (count < 2) {
+            return false;
+        }
+        for (int[] row : puzzle(0)) {
+            for (int v : row) {
+                if (v == 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Return the puzzle at the given index as a new [row][column] array. */
+    public int[][] puzzle(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("No puzzle " + index + " in a library of " + count);
+        }
+        if (bits > 0) {
+            return unpack(index);
+        }
+        int[][] puzzle = new int[size][size];
+        int offset = offsets[index];
+        int stride = strides[index];
+        for (int i = 0; i < size; i++) {
+            int row = offset + i * stride;
+            for (int j = 0; j < size; j++) {
+                puzzle[i][j] = buffer.get(row + j) - '0';
+            }
+        }
+        return puzzle;
+    }
+
+    /** Read the header of a binary library. */
+    private void readHeader(String fileName) throws IOException {
+        int version = buffer.getShort(4);
+        int fileSize = buffer.get(6) & 0xFF;
+        bits = buffer.get(7) & 0xFF;
+        count = buffer.getInt(8);
+        recordSize = buffer.getInt(12);
+        if (version != VERSION || fileSize != size || bits == 0 || bits > 8
+                || HEADER_SIZE + (long) count * recordSize > buffer.limit()) {
+            throw new IOException("Not a library of " + size + "x" + size + " puzzles: '" + fileName + "'");
+        }
+    }
+
+    /** Decode the binary record of the puzzle at the given index. */
+    private int[][] unpack(int index) {
+        int[][] puzzle = new int[size][size];
+        int start = HEADER_SIZE + index * recordSize;
+        int end = start + recordSize;
+        int mask = (1 << bits) - 1;
+        int bit = 0;
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                // a square spans at most two bytes as bits is at most 8
+                int pos = start + (bit >> 3);
+                int word = (buffer.get(pos) & 0xFF) << 8;
+                if (pos + 1 < end) {
+                    word |= buffer.get(pos + 1) & 0xFF;
+                }
+                puzzle[i][j] = (word >> (16 - bits - (bit & 7))) & mask;
+                bit += bits;
+            }
+        }
+        return puzzle;
+    }
+
+    /**
+     * Write all the puzzles of the given library to the given file
+     * in the binary format.
+     */
+    public static void writeBinary(String fileName, PuzzleLibrary library) throws IOException {
+        writeBinary(fileName, library.size(), library.count(), library::puzzle);
+    }
+
+    /**
+     * Write the given number of puzzles of the given size to the given file
+     * in the binary format. Puzzle k is obtained by calling puzzles.apply(k).
+     */
+    public static void writeBinary(String fileName, int size, int count, IntFunction<int[][]> puzzles)
+            throws IOException {
+        int bits = 32 - Integer.numberOfLeadingZeros(size);
+        if (bits > 8) {
+            throw new IOException("Can't store puzzles of size " + size);
+        }
+        int recordSize = (size * size * bits + 7) / 8;
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(fileName)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeByte(size);
+            out.writeByte(bits);
+            out.writeInt(count);
+            out.writeInt(recordSize);
+            byte[] record = new byte[recordSize];
+            for (int k = 0; k < count; k++) {
+                Arrays.fill(record, (byte) 0);
+                int[][] puzzle = puzzles.apply(k);
+                int bit = 0;
+                for (int i = 0; i < size; i++) {
+                    for (int j = 0; j < size; j++) {
+                        int word = puzzle[i][j] << (16 - bits - (bit & 7));
+                        record[bit >> 3] |= word >> 8;
+                        if ((bit >> 3) + 1 < recordSize) {
+                            record[(bit >> 3) + 1] |= word;
+                        }
+                        bit += bits;
+                    }
+                }
+                out.write(record);
+            }
+        }
+    }
+
+    /** Find where each puzzle starts by scanning the file once. */
+    private void index() {
+        int limit = buffer.limit();
+        int[] lines = new int[size]; // starts of the lines of the current block
+        int numLines = 0;
+        int pos = 0;
+        while (pos < limit) {
+            int start = pos;
+            while (pos < limit && buffer.get(pos) != '\n') {
+                pos++;
+            }
+            int end = pos++; // skip the '\n'
+            if (isBlank(start, end)) {
+                numLines = 0;
+                continue;
+            }
+            lines[numLines++] = start;
+            if (numLines == size) {
+                addBlock(lines);
+                numLines = 0;
+            }
+        }
+    }
+
+    /** Add the puzzles of the block whose lines start at the given positions. */
+    private void addBlock(int[] lines) {
+        int stride = size > 1 ? lines[1] - lines[0] : 0;
+        for (int i = 2; i < size; i++) {
+            if (lines[i] - lines[i - 1] != stride) {
+                return; // rows of different widths; not a block of puzzles
+            }
+        }
+        int pos = lines[0];
+        int end = size > 1 ? lines[1] : buffer.limit();
+        while (pos < end) {
+            if (isDigit(pos)) {
+                int start = pos;
+                while (pos < end && isDigit(pos)) {
+                    pos++;
+                }
+                if (pos - start == size) {
+                    add(start, stride);
+                }
+            } else {
+                pos++;
+            }
+        }
+    }
+
+    /** Add a puzzle starting at the given position. */
+    private void add(int offset, int stride) {
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+            strides = Arrays.copyOf(strides, count * 2);
+        }
+        offsets[count] = offset;
+        strides[count] = stride;
+        count++;
+    }
+
+    private boolean isDigit(int pos) {
+        byte b = buffer.get(pos);
+        return b >= '0' && b <= '9';
+    }
+
+    private boolean isBlank(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
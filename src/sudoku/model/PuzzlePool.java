@@ -0,0 +1,339 @@
+package sudoku.model;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of ready-made boards for each supported size, kept full by a
+ * background thread that generates new puzzles whenever boards are taken.
+ * Starting a new game is then only a queue poll. If the pool of the
+ * requested size is empty (a miss), {@link #take(int)} generates a board on
+ * the caller's thread, while {@link #takeAsync(int)} has the background
+ * thread generate one before any other and hands it over through a future,
+ * so that the caller, e.g., the event dispatch thread, never waits.
+ *
+ * <p>
+ * For the sizes whose puzzles take long to generate, 16x16 and up, a miss
+ * is served at once from the library of puzzles of the size, if there is
+ * one, e.g., puzzles25.bin written by {@link PuzzleConverter}; see
+ * {@link Board#fromLibrary}.
+ * </p>
+ *
+ * <pre>
+ *  Board board = PuzzlePool.getDefault().take(9);
+ *  PuzzlePool.getDefault().takeAsync(25).thenAccept(board -> ...);
+ * </pre>
+ */
+public class PuzzlePool {
+
+    /** Number of boards kept ready for each size by the default pool. */
+    private static final int DEFAULT_CAPACITY = 4;
+
+    /** Board sizes the default pool keeps boards for. */
+    private static final int[] DEFAULT_SIZES = { 4, 9, 16, 25 };
+
+    /** Smallest board size whose misses are served from a library, as generating takes too long. */
+    private static final int LIBRARY_MIN_SIZE = 16;
+
+    /** Time to wait before trying again to generate a board that failed, in milliseconds. */
+    private static final long RETRY_DELAY = 1000;
+
+    private static PuzzlePool defaultPool;
+
+    /** Ready-made boards for each size. */
+    private final Map<Integer, BlockingQueue<Board>> pools = new HashMap<>();
+
+    /** Sizes in the order they are refilled. */
+    private final int[] sizes;
+
+    /** Background thread that refills the pools. */
+    private final Thread producer;
+
+    /** Boards asked for when none was ready, to be generated before refilling. */
+    private final Queue<Request> requests = new ConcurrentLinkedQueue<>();
+
+    /** True once the background thread stops taking requests; set with this pool's lock held. */
+    private volatile boolean stopped;
+
+    /** A board of the given size to be generated for a caller. */
+    private static class Request {
+        final int size;
+        final CompletableFuture<Board> board = new CompletableFuture<>();
+
+        Request(int size) {
+            this.size = size;
+        }
+    }
+
+    /** Libraries of puzzles to play, by size, for the sizes that have one. */
+    private final Map<Integer, PuzzleLibrary> libraries = new HashMap<>();
+
+    private final Random random = new Random();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong libraryBoards = new AtomicLong();
+    private final AtomicLong refills = new AtomicLong();
+    private final AtomicLong refillTime = new AtomicLong();
+
+    /** Return the shared pool, starting it the first time. */
+    public static synchronized PuzzlePool getDefault() {
+        if (defaultPool == null) {
+            defaultPool = new PuzzlePool(DEFAULT_CAPACITY, DEFAULT_SIZES);
+        }
+        return defaultPool;
+    }
+
+    /**
+     * Create a pool that keeps up to capacity boards of each of the given
+     * sizes and start its background thread.
+     */
+    public PuzzlePool(int capacity, int... sizes) {
+        this.sizes = sizes.clone();
+        for (int size : sizes) {
+            pools.put(size, new ArrayBlockingQueue<Board>(capacity));
+            if (size >= LIBRARY_MIN_SIZE) {
+                PuzzleLibrary library = loadLibrary(size);
+                if (library != null) {
+                    libraries.put(size, library);
+                }
+            }
+        }
+        producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                refill();
+            }
+        }, "PuzzlePool");
+        producer.setDaemon(true);
+        producer.setPriority(Thread.MIN_PRIORITY);
+        producer.start();
+    }
+
+    /**
+     * Return a new board of the given size, taken from the pool if one is
+     * ready, else from the library of the size if it has one, or generated
+     * on the caller's thread otherwise. Callers that must
+     * not wait for a board to be generated, such as the event dispatch
+     * thread or a server's selector thread, are to use {@link #takeAsync(int)}.
+     */
+    public Board take(int size) {
+        Board board = poll(size);
+        if (board == null) {
+            misses.incrementAndGet();
+            board = fromLibrary(size);
+        }
+        return board != null ? board : new Board(size);
+    }
+
+    /**
+     * Return a future of a new board of the given size: one taken from the
+     * pool, or else from the library of the size, already done, if one is
+     * ready, or otherwise one done by the
+     * background thread once it has generated the board, before any board
+     * for the pools. The future is completed on that thread.
+     */
+    public CompletableFuture<Board> takeAsync(int size) {
+        Board board = poll(size);
+        if (board != null) {
+            return CompletableFuture.completedFuture(board);
+        }
+        misses.incrementAndGet();
+        board = fromLibrary(size);
+        if (board != null) {
+            return CompletableFuture.completedFuture(board);
+        }
+        synchronized (this) {
+            if (!stopped) {
+                Request request = new Request(size);
+                requests.add(request);
+                notifyAll();
+                return request.board;
+            }
+        }
+        return CompletableFuture.supplyAsync(() -> new Board(size));
+    }
+
+    /** Take a board of the given size from the pool, or return null if none is ready. */
+    private Board poll(int size) {
+        BlockingQueue<Board> pool = pools.get(size);
+        Board board = pool == null ? null : pool.poll();
+        if (board != null) {
+            hits.incrementAndGet();
+            wakeUp(); // to refill
+        }
+        return board;
+    }
+
+    /** Return a new board of the given size from its library, or null if it has none. */
+    private Board fromLibrary(int size) {
+        PuzzleLibrary library = libraries.get(size);
+        if (library == null) {
+            return null;
+        }
+        libraryBoards.incrementAndGet();
+        return Board.fromLibrary(library, random);
+    }
+
+    /**
+     * Return the library of puzzles of the given size, or null if there is
+     * none or it has solutions only, as digging puzzles out of them takes as
+     * long as generating.
+     */
+    private static PuzzleLibrary loadLibrary(int size) {
+        try {
+            PuzzleLibrary library = PuzzleLibrary.forSize(size);
+            if (library.isPlayable()) {
+                return library;
+            }
+        } catch (IOException e) {
+            // no library; misses wait for the background thread
+        }
+        return null;
+    }
+
+    /** Wake up the background thread if it waits for boards to be taken. */
+    private synchronized void wakeUp() {
+        notifyAll();
+    }
+
+    /** Return the number of boards of the given size that are ready. */
+    public int available(int size) {
+        BlockingQueue<Board> pool = pools.get(size);
+        return pool == null ? 0 : pool.size();
+    }
+
+    /** Return the number of boards taken from the pool. */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** Return the number of boards asked for when the pool of their size was empty. */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** Return the number of boards of misses taken from a library. */
+    public long getLibraryBoards() {
+        return libraryBoards.get();
+    }
+
+    /** Return the number of boards generated by the background thread. */
+    public long getRefills() {
+        return refills.get();
+    }
+
+    /** Return the average time to generate a board in the background, in nanoseconds. */
+    public long getAverageRefillTime() {
+        long n = refills.get();
+        return n == 0 ? 0 : refillTime.get() / n;
+    }
+
+    /**
+     * Stop the background thread. Boards asked for later, when none is
+     * ready, are generated on the common fork/join pool.
+     */
+    public void shutdown() {
+        stop();
+        producer.interrupt();
+    }
+
+    /**
+     * Mark this pool stopped, so that no more boards are asked of the
+     * background thread, and have the boards still asked for generated on
+     * the common fork/join pool.
+     */
+    private void stop() {
+        synchronized (this) {
+            stopped = true; // with the lock held, no request is added after this
+        }
+        Request request;
+        while ((request = requests.poll()) != null) {
+            int size = request.size;
+            CompletableFuture<Board> board = request.board;
+            CompletableFuture.runAsync(() -> generate(size, board));
+        }
+    }
+
+    /**
+     * Generate the boards asked for by callers, then boards for pools that
+     * are not full, going back to the callers' boards after each, and wait
+     * while there is nothing to do. A board that fails to be generated
+     * fails the future of its caller; if it was for a pool, it is tried
+     * again after a while.
+     */
+    private void refill() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Request request;
+                while ((request = requests.poll()) != null) {
+                    generate(request.size, request.board);
+                }
+                boolean added = false;
+                boolean failed = false;
+                for (int size : sizes) {
+                    BlockingQueue<Board> pool = pools.get(size);
+                    if (pool.remainingCapacity() > 0) {
+                        try {
+                            added |= pool.offer(generate(size));
+                        } catch (RuntimeException e) {
+                            failed = true;
+                        }
+                        if (!requests.isEmpty()) {
+                            break;
+                        }
+                    }
+                }
+                if (!added) {
+                    synchronized (this) {
+                        if (requests.isEmpty() && (failed || isFull())) {
+                            try {
+                                wait(failed ? RETRY_DELAY : 0);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt(); // shut down
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            stop(); // also if the thread dies, so that no caller waits for it
+        }
+    }
+
+    /** Generate a board of the given size and complete the given future with it or its failure. */
+    private void generate(int size, CompletableFuture<Board> board) {
+        try {
+            board.complete(generate(size));
+        } catch (RuntimeException e) {
+            board.completeExceptionally(e);
+        }
+    }
+
+    /** Generate a new board of the given size, timing it. */
+    private Board generate(int size) {
+        long start = System.nanoTime();
+        Board board = new Board(size);
+        refillTime.addAndGet(System.nanoTime() - start);
+        refills.incrementAndGet();
+        return board;
+    }
+
+    /** Return true if the pools of all sizes are full. */
+    private boolean isFull() {
+        for (BlockingQueue<Board> pool : pools.values()) {
+            if (pool.remainingCapacity() > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,39 @@
+package sudoku.model;
+
+/**
+ * A strategy for solving Sudoku puzzles modeled by the {@link Board} class.
+ * A solver only looks at the given squares of a board (see
+ * {@link Board#isGiven(int, int)}), so a board can be solved even if the
+ * player has already entered wrong values.
+ *
+ * @see DancingLinksSolver
+ * @see ParallelSolver
+ */
+public interface Solver {
+
+    /**
+     * Solve the puzzle of the given board.
+     *
+     * @param board Board whose given squares are the clues of the puzzle.
+     * @return Solution indexed as [row][column], or null if the puzzle
+     *   has no solution.
+     */
+    int[][] solve(Board board);
+
+    /**
+     * Count the solutions of the puzzle of the given board, stopping as soon
+     * as limit solutions are found. E.g., a limit of 2 tells if the puzzle
+     * has a unique solution.
+     *
+     * @param board Board whose given squares are the clues of the puzzle.
+     * @param limit Maximum number of solutions to look for.
+     * @return Number of solutions found, at most limit.
+     */
+    int countSolutions(Board board, int limit);
+
+    /** Return the number of search nodes visited by the last solve. */
+    long getNodeCount();
+
+    /** Return the time taken by the last solve in nanoseconds. */
+    long getSolveTime();
+}
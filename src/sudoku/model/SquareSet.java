@@ -0,0 +1,67 @@
+package sudoku.model;
+
+import java.util.BitSet;
+
+/**
+ * A read-only view of a set of squares of a board, such as the squares
+ * with wrong values returned by {@link Board#check()}. Each square is
+ * identified by its index, row*size + column. The view is live: it
+ * reflects later changes to the board.
+ *
+ * <pre>
+ *  SquareSet errors = board.check();
+ *  for (int i = errors.next(0); i >= 0; i = errors.next(i + 1)) {
+ *      int row = errors.row(i);
+ *      int col = errors.column(i);
+ *      ...
+ *  }
+ * </pre>
+ */
+public final class SquareSet {
+
+    /** Bit row*size + column is set for each square in this set. */
+    private final BitSet bits;
+
+    /** Size of the board the squares belong to. */
+    private final int size;
+
+    SquareSet(BitSet bits, int size) {
+        this.bits = bits;
+        this.size = size;
+    }
+
+    /** Return the number of squares in this set. */
+    public int count() {
+        return bits.cardinality();
+    }
+
+    /** Return true if this set has no squares. */
+    public boolean isEmpty() {
+        return bits.isEmpty();
+    }
+
+    /** Return true if this set contains the square at row x, column y. */
+    public boolean contains(int x, int y) {
+        return bits.get(x * size + y);
+    }
+
+    /** Return the index of the first square in this set at or after the given index, or -1. */
+    public int next(int from) {
+        return bits.nextSetBit(from);
+    }
+
+    /** Return the row of the square with the given index. */
+    public int row(int index) {
+        return index / size;
+    }
+
+    /** Return the column of the square with the given index. */
+    public int column(int index) {
+        return index % size;
+    }
+
+    /** Return a copy of this set that doesn't reflect later changes to the board. */
+    public SquareSet copy() {
+        return new SquareSet((BitSet) bits.clone(), size);
+    }
+}